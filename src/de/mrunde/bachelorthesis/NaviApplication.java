@@ -0,0 +1,235 @@
+package de.mrunde.bachelorthesis;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.commons.io.IOUtils;
+
+import android.app.Application;
+import android.content.ComponentCallbacks2;
+import android.util.Log;
+
+import de.mrunde.bachelorthesis.data.FeatureRepository;
+import de.mrunde.bachelorthesis.data.GuidanceCache;
+import de.mrunde.bachelorthesis.data.GuidanceClient;
+import de.mrunde.bachelorthesis.data.HttpTransport;
+import de.mrunde.bachelorthesis.navigation.NavigationSession;
+
+/**
+ * The NaviApplication holds the state shared by all navigations of the
+ * process. The feature store of the landmarks, street furniture and
+ * intersections is prepared once in the background when the application is
+ * started, so a navigation does not have to wait for it. It is only mapped
+ * into memory and read in place, so the features do not occupy the Java heap.
+ * The mapping is released when the system runs low on memory and opened again
+ * by the next navigation.<br/>
+ * <br/>
+ * The application also hands the navigation session over from the
+ * MainActivity to the NaviActivity and provides the client of the guidance
+ * information used by both of them.
+ * 
+ * @author Marius Runde
+ */
+public class NaviApplication extends Application {
+
+	/**
+	 * Name of the feature store in the assets and in the files directory
+	 */
+	private final String FEATURE_STORE_FILE = "features.bin";
+
+	/**
+	 * The shared landmarks, street furniture and intersections.
+	 * <code>null</code> if they have not been loaded yet or have been
+	 * released.
+	 */
+	private FeatureRepository featureRepository;
+
+	/**
+	 * Maximal size of the guidance cache in bytes
+	 */
+	private final long GUIDANCE_CACHE_SIZE = 1024 * 1024;
+
+	/**
+	 * The transport of all HTTP requests. Its connections are shared by all
+	 * navigations.
+	 */
+	private HttpTransport httpTransport = new HttpTransport();
+
+	/**
+	 * The client of the guidance information. <code>null</code> if it has not
+	 * been created yet.
+	 */
+	private GuidanceClient guidanceClient;
+
+	/**
+	 * The navigation session that is handed over to the next NaviActivity.
+	 * <code>null</code> if there is none.
+	 */
+	private NavigationSession navigationSession;
+
+	@Override
+	public void onCreate() {
+		super.onCreate();
+
+		// Copy and open the feature store in the background before the first
+		// navigation is started
+		new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				getFeatureRepository();
+			}
+		}, "FeatureLoader").start();
+	}
+
+	@Override
+	public void onTrimMemory(int level) {
+		super.onTrimMemory(level);
+
+		// Keep the features as long as the application is visible
+		if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+			releaseFeatureRepository();
+		}
+	}
+
+	@Override
+	public void onLowMemory() {
+		super.onLowMemory();
+		releaseFeatureRepository();
+	}
+
+	/**
+	 * Get the shared landmarks, street furniture and intersections. They are
+	 * loaded if necessary, so this method should not be called on the UI
+	 * thread for the first time. Navigations that are already running keep
+	 * their repository even if it is released here.
+	 * 
+	 * @return The feature repository. <code>null</code> if it could not be
+	 *         loaded.
+	 */
+	public synchronized FeatureRepository getFeatureRepository() {
+		if (this.featureRepository == null) {
+			this.featureRepository = loadFeatureRepository();
+		}
+		return this.featureRepository;
+	}
+
+	/**
+	 * Get the client of the guidance information. The downloaded routes are
+	 * cached in the files directory. The URL of the guidance API is defined
+	 * in the resources, so it can be replaced by a local server for testing.
+	 * 
+	 * @return The guidance client
+	 */
+	public synchronized GuidanceClient getGuidanceClient() {
+		if (this.guidanceClient == null) {
+			GuidanceCache cache = new GuidanceCache(new File(getFilesDir(),
+					"guidance"), GUIDANCE_CACHE_SIZE);
+			this.guidanceClient = new GuidanceClient(this.httpTransport,
+					getResources().getString(R.string.guidanceUrl),
+					getResources().getString(R.string.apiKey), cache);
+		}
+		return this.guidanceClient;
+	}
+
+	/**
+	 * Hand a navigation session over to the next NaviActivity
+	 * 
+	 * @param session
+	 *            The navigation session
+	 */
+	public synchronized void setNavigationSession(NavigationSession session) {
+		this.navigationSession = session;
+	}
+
+	/**
+	 * Take the navigation session that has been handed over by the
+	 * MainActivity. It is removed from the application, so it is used by one
+	 * navigation only.
+	 * 
+	 * @return The navigation session. <code>null</code> if there is none
+	 *         (e.g. if the process has been restarted in the meantime).
+	 */
+	public synchronized NavigationSession takeNavigationSession() {
+		NavigationSession session = this.navigationSession;
+		this.navigationSession = null;
+		return session;
+	}
+
+	/**
+	 * Release the shared landmarks, street furniture and intersections
+	 */
+	private synchronized void releaseFeatureRepository() {
+		if (this.featureRepository != null) {
+			Log.i("NaviApplication", "Feature repository released");
+			this.featureRepository = null;
+		}
+	}
+
+	/**
+	 * Open the feature store in the files directory. The feature store is
+	 * copied from the assets (see tools/README.md) when the application is
+	 * started for the first time after its installation or an update.
+	 * 
+	 * @return The feature repository. <code>null</code> if it could not be
+	 *         loaded.
+	 */
+	private FeatureRepository loadFeatureRepository() {
+		File file = new File(getFilesDir(), FEATURE_STORE_FILE);
+		File apk = new File(getApplicationInfo().sourceDir);
+		if (!file.isFile() || file.lastModified() < apk.lastModified()) {
+			try {
+				copyFeatureStore(file);
+			} catch (IOException e) {
+				Log.e("NaviApplication",
+						"Could not copy the feature store. This is the error message: "
+								+ e.getMessage());
+				return null;
+			}
+		}
+
+		try {
+			FeatureRepository repository = FeatureRepository.open(file);
+			Log.i("NaviApplication", "Feature repository loaded");
+			return repository;
+		} catch (IOException e) {
+			Log.e("NaviApplication",
+					"Could not open the feature store. This is the error message: "
+							+ e.getMessage());
+			file.delete();
+			return null;
+		}
+	}
+
+	/**
+	 * Copy the feature store from the assets into the files directory. Assets
+	 * may be compressed, so they cannot be mapped into memory directly.
+	 * 
+	 * @param file
+	 *            The file of the feature store
+	 * @throws IOException
+	 *             If the feature store could not be copied
+	 */
+	private void copyFeatureStore(File file) throws IOException {
+		// Write into a temporary file first so that no incomplete feature
+		// store can be opened
+		File temp = new File(file.getPath() + ".tmp");
+		InputStream in = getAssets().open(FEATURE_STORE_FILE);
+		OutputStream out = null;
+		try {
+			out = new BufferedOutputStream(new FileOutputStream(temp));
+			IOUtils.copy(in, out);
+		} finally {
+			IOUtils.closeQuietly(in);
+			IOUtils.closeQuietly(out);
+		}
+		if (!temp.renameTo(file)) {
+			temp.delete();
+			throw new IOException("Could not rename " + temp);
+		}
+	}
+}
@@ -12,6 +12,8 @@ import android.app.ProgressDialog;
 import android.content.DialogInterface;
 import android.content.DialogInterface.OnCancelListener;
 import android.content.Intent;
+import android.graphics.Color;
+import android.graphics.Paint;
 import android.location.Address;
 import android.location.Geocoder;
 import android.location.LocationManager;
@@ -40,7 +42,11 @@ import com.mapquest.android.maps.OverlayItem;
 import com.mapquest.android.maps.RouteManager;
 import com.mapquest.android.maps.RouteResponse;
 
+import de.mrunde.bachelorthesis.NaviApplication;
 import de.mrunde.bachelorthesis.R;
+import de.mrunde.bachelorthesis.basics.Route;
+import de.mrunde.bachelorthesis.basics.RouteOverlay;
+import de.mrunde.bachelorthesis.navigation.NavigationSession;
 
 /**
  * This is the initial activity which is started with the application. It offers
@@ -120,6 +126,11 @@ public class MainActivity extends MapActivity implements OnInitListener {
 	 */
 	private MyLocationOverlay myLocationOverlay;
 
+	/**
+	 * An overlay to display the route in the single request mode
+	 */
+	private RouteOverlay routeOverlay;
+
 	// --- End of graphical user interface ---
 
 	/**
@@ -142,6 +153,13 @@ public class MainActivity extends MapActivity implements OnInitListener {
 	 */
 	private double[] destination_coords = null;
 
+	/**
+	 * The navigation session of the calculated route. It is handed over to
+	 * the NaviActivity when the navigation is started. <code>null</code> if
+	 * no route has been calculated.
+	 */
+	private NavigationSession session;
+
 	/**
 	 * TextToSpeech for audio output
 	 */
@@ -220,11 +238,29 @@ public class MainActivity extends MapActivity implements OnInitListener {
 					str_destination = "{latLng:{lat:" + destination_coords[0]
 							+ ",lng:" + destination_coords[1] + "}}";
 
-					// Calculate the route
-					calculateRoute();
+					// Start a new navigation session and calculate the route
+					clearNavigationSession();
+					session = new NavigationSession(str_currentLocation,
+							str_destination, destination_coords[0],
+							destination_coords[1], getRouteOptions());
+					if (getResources().getBoolean(R.bool.singleRequestMode)) {
+						// Request the guidance information only and display
+						// its route
+						GuidanceTask guidanceTask = new GuidanceTask();
+						guidanceTask.execute(session);
+					} else {
+						calculateRoute();
+					}
 				} else {
+					// Hand the calculated route and the guidance information
+					// over to the NaviActivity
+					((NaviApplication) getApplication())
+							.setNavigationSession(session);
+					session = null;
+
 					// Create an Intent to start the NaviActivity and hereby the
-					// navigation
+					// navigation. The route information is also added to the
+					// intent in case the session is not available anymore.
 					Intent intent = new Intent(MainActivity.this,
 							NaviActivity.class);
 					intent.putExtra("str_currentLocation", str_currentLocation);
@@ -353,7 +389,8 @@ public class MainActivity extends MapActivity implements OnInitListener {
 				if (btn_calculate.getText() == getResources().getString(
 						R.string.start)) {
 					btn_calculate.setText(R.string.calculate);
-					rm.clearRoute();
+					clearRoute();
+					clearNavigationSession();
 				}
 			}
 		}
@@ -422,6 +459,14 @@ public class MainActivity extends MapActivity implements OnInitListener {
 				// Route has been calculated successfully
 				Log.i("MainActivity",
 						getResources().getString(R.string.routeCalculated));
+				// Keep the route for the navigation and download the guidance
+				// information while the user looks at the route
+				if (session != null) {
+					session.setRouteResponse(response);
+					NaviApplication application = (NaviApplication) getApplication();
+					session.prefetchGuidance(application.getGuidanceClient());
+				}
+
 				// Change the text of the button to enable navigation
 				btn_calculate.setText(R.string.start);
 			}
@@ -463,6 +508,149 @@ public class MainActivity extends MapActivity implements OnInitListener {
 		rm.createRoute(str_currentLocation, str_destination);
 	}
 
+	/**
+	 * This is a class to request the guidance information asynchronously in
+	 * the single request mode. Its route is displayed instead of calculating
+	 * the route with the RouteManager, and the guidance information is kept
+	 * in the navigation session for the NaviActivity.
+	 * 
+	 * @author Marius Runde
+	 */
+	private class GuidanceTask extends
+			AsyncTask<NavigationSession, Void, Route> {
+
+		/**
+		 * Progress dialog to inform the user about the route calculation
+		 */
+		private ProgressDialog progressDialog = new ProgressDialog(
+				MainActivity.this);
+
+		/**
+		 * The navigation session of the route
+		 */
+		private NavigationSession guidanceSession;
+
+		@Override
+		protected void onPreExecute() {
+			// Display progress dialog
+			progressDialog.setMessage("Calculating route...");
+			progressDialog.show();
+			progressDialog.setOnCancelListener(new OnCancelListener() {
+
+				@Override
+				public void onCancel(DialogInterface dialog) {
+					// Enable canceling the route calculation
+					GuidanceTask.this.cancel(true);
+				}
+			});
+		}
+
+		@Override
+		protected Route doInBackground(NavigationSession... sessions) {
+			this.guidanceSession = sessions[0];
+			try {
+				return ((NaviApplication) getApplication())
+						.getGuidanceClient().getRoute(
+								guidanceSession.getCurrentLocation(),
+								guidanceSession.getDestination(),
+								guidanceSession.getRouteOptions());
+			} catch (IOException e) {
+				Log.e("MainActivity",
+						"Could not get the guidance. This is the error message: "
+								+ e.getMessage());
+				return null;
+			}
+		}
+
+		@Override
+		protected void onPostExecute(Route result) {
+			// Dismiss progress dialog
+			progressDialog.dismiss();
+
+			// Ignore the route if another one has been requested meanwhile
+			if (guidanceSession != session) {
+				return;
+			}
+
+			// Check if the route calculation was successful
+			if (result == null || !result.isImportSuccessful()) {
+				Log.e("MainActivity",
+						getResources().getString(R.string.routeNotCalculated));
+				Toast.makeText(MainActivity.this,
+						getResources().getString(R.string.routeNotCalculated),
+						Toast.LENGTH_SHORT).show();
+			} else {
+				Log.i("MainActivity",
+						getResources().getString(R.string.routeCalculated));
+				// Keep the guidance information for the navigation
+				session.setGuidance(result);
+				drawRoute(result);
+
+				// Change the text of the button to enable navigation
+				btn_calculate.setText(R.string.start);
+			}
+		}
+	}
+
+	/**
+	 * Draw the route with the shape points from the guidance information and
+	 * zoom the map to display the whole route
+	 * 
+	 * @param route
+	 *            The route
+	 */
+	private void drawRoute(Route route) {
+		// Set custom line style
+		Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+		paint.setColor(Color.BLUE);
+		paint.setStyle(Paint.Style.STROKE);
+		paint.setStrokeWidth(5);
+
+		// Add the route overlay to the map
+		this.routeOverlay = new RouteOverlay(paint);
+		this.routeOverlay.setData(route.getShapePoints());
+		map.getOverlays().add(this.routeOverlay);
+
+		// Zoom and pan the map to show the whole route
+		double minLat = route.getLatitude(0);
+		double maxLat = minLat;
+		double minLng = route.getLongitude(0);
+		double maxLng = minLng;
+		for (int i = 1; i < route.getNumberOfShapePoints(); i++) {
+			minLat = Math.min(minLat, route.getLatitude(i));
+			maxLat = Math.max(maxLat, route.getLatitude(i));
+			minLng = Math.min(minLng, route.getLongitude(i));
+			maxLng = Math.max(maxLng, route.getLongitude(i));
+		}
+		map.getController().zoomToSpan(
+				new BoundingBox(new GeoPoint(maxLat, minLng), new GeoPoint(
+						minLat, maxLng)));
+	}
+
+	/**
+	 * Clear the previously calculated route from the map
+	 */
+	private void clearRoute() {
+		if (rm != null) {
+			rm.clearRoute();
+		}
+		if (routeOverlay != null) {
+			map.getOverlays().remove(routeOverlay);
+			routeOverlay = null;
+			map.invalidate();
+		}
+	}
+
+	/**
+	 * Cancel the navigation session of the previously calculated route
+	 */
+	private void clearNavigationSession() {
+		if (session != null) {
+			session.cancel();
+			session = null;
+		}
+	}
+
 	/**
 	 * Setup the route options and return them
 	 * 
@@ -609,7 +797,8 @@ public class MainActivity extends MapActivity implements OnInitListener {
 		// clear the route from the RouteManager
 		if (btn_calculate.getText() == getResources().getString(R.string.start)) {
 			btn_calculate.setText(R.string.calculate);
-			rm.clearRoute();
+			clearRoute();
+			clearNavigationSession();
 		}
 
 		// Change the route type in the settings
@@ -684,10 +873,12 @@ public class MainActivity extends MapActivity implements OnInitListener {
 	}
 
 	/**
-	 * Shut down the TextToSpeech engine when the application is terminated
+	 * Shut down the TextToSpeech engine when the application is terminated and
+	 * cancel the navigation session that has not been started
 	 */
 	@Override
 	protected void onDestroy() {
+		clearNavigationSession();
 		if (tts != null) {
 			tts.stop();
 			tts.shutdown();
@@ -1,26 +1,17 @@
 package de.mrunde.bachelorthesis.activities;
 
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Calendar;
-import java.util.List;
+import java.io.Writer;
 import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.io.IOUtils;
-import org.apache.http.HttpResponse;
-import org.apache.http.HttpStatus;
-import org.apache.http.StatusLine;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
 
 import android.app.AlertDialog;
 import android.app.ProgressDialog;
@@ -49,7 +40,6 @@ import android.widget.Toast;
 
 import com.mapquest.android.maps.DefaultItemizedOverlay;
 import com.mapquest.android.maps.GeoPoint;
-import com.mapquest.android.maps.LineOverlay;
 import com.mapquest.android.maps.MapActivity;
 import com.mapquest.android.maps.MapView;
 import com.mapquest.android.maps.MyLocationOverlay;
@@ -57,15 +47,29 @@ import com.mapquest.android.maps.OverlayItem;
 import com.mapquest.android.maps.RouteManager;
 import com.mapquest.android.maps.RouteResponse;
 
+import de.mrunde.bachelorthesis.NaviApplication;
 import de.mrunde.bachelorthesis.R;
 import de.mrunde.bachelorthesis.basics.Landmark;
 import de.mrunde.bachelorthesis.basics.LandmarkCategory;
 import de.mrunde.bachelorthesis.basics.Maneuver;
 import de.mrunde.bachelorthesis.basics.MyDefaultItemizedOverlay;
+import de.mrunde.bachelorthesis.basics.Route;
+import de.mrunde.bachelorthesis.basics.RouteOverlay;
+import de.mrunde.bachelorthesis.basics.RouteOverlay.OnRouteDrawnListener;
+import de.mrunde.bachelorthesis.data.FeatureRepository;
 import de.mrunde.bachelorthesis.instructions.GlobalInstruction;
 import de.mrunde.bachelorthesis.instructions.Instruction;
 import de.mrunde.bachelorthesis.instructions.InstructionManager;
 import de.mrunde.bachelorthesis.instructions.LandmarkInstruction;
+import de.mrunde.bachelorthesis.navigation.KalmanLocationFilter;
+import de.mrunde.bachelorthesis.navigation.LocationFilter;
+import de.mrunde.bachelorthesis.navigation.LocationScheduler;
+import de.mrunde.bachelorthesis.navigation.NavigationLog;
+import de.mrunde.bachelorthesis.navigation.NavigationSession;
+import de.mrunde.bachelorthesis.navigation.OffRouteDetector;
+import de.mrunde.bachelorthesis.navigation.OffRouteDetector.OnOffRouteListener;
+import de.mrunde.bachelorthesis.navigation.RouteMatcher;
+import de.mrunde.bachelorthesis.navigation.TriggerScheduler;
 
 /**
  * This is the navigational activity which is started by the MainActivity. It
@@ -105,6 +109,11 @@ public class NaviActivity extends MapActivity implements OnInitListener,
 	 */
 	private MyLocationOverlay myLocationOverlay;
 
+	/**
+	 * An overlay to display the route
+	 */
+	private RouteOverlay routeOverlay;
+
 	// --- End of GUI ---
 
 	// --- The route and instruction objects ---
@@ -139,11 +148,86 @@ public class NaviActivity extends MapActivity implements OnInitListener,
 	 */
 	private String routeOptions;
 
+	/**
+	 * The navigation session handed over by the MainActivity. It contains the
+	 * route and the guidance information if they have been requested already.
+	 */
+	private NavigationSession session;
+
 	/**
 	 * Instruction manager that creates instructions
 	 */
 	private InstructionManager im;
 
+	/**
+	 * Matches the locations of the user onto the route. <code>null</code> if
+	 * the instructions have not been created yet.
+	 */
+	private RouteMatcher matcher;
+
+	/**
+	 * Decides at which along-route positions the instructions are updated
+	 */
+	private TriggerScheduler triggers;
+
+	/**
+	 * Smooths the locations of the user before they are matched onto the
+	 * route
+	 */
+	private LocationFilter locationFilter;
+
+	/**
+	 * Executor that processes the locations of the user in the background.
+	 * The location filter, the matcher, the trigger scheduler, the off-route
+	 * detector and the location scheduler are only accessed by this executor.
+	 */
+	private ExecutorService locationExecutor;
+
+	/**
+	 * The newest location that has not been processed yet. <code>null</code>
+	 * if all locations have been processed. A location that has not been
+	 * processed yet is replaced by a newer one, so only the newest location
+	 * of a burst is processed.
+	 */
+	private final AtomicReference<Location> pendingLocation = new AtomicReference<Location>();
+
+	/**
+	 * Processes the newest pending location on the location executor
+	 */
+	private final Runnable locationProcessor = new Runnable() {
+
+		@Override
+		public void run() {
+			Location location = pendingLocation.getAndSet(null);
+			if (location != null) {
+				processLocation(location);
+			}
+		}
+	};
+
+	/**
+	 * Variable to control if the activity is in the foreground and receives
+	 * location updates
+	 */
+	private boolean resumed = false;
+
+	/**
+	 * Executor that creates the instructions in the background
+	 */
+	private ExecutorService instructionExecutor;
+
+	/**
+	 * The running creation of the instructions. <code>null</code> if none has
+	 * been started.
+	 */
+	private Future<?> instructionCreation;
+
+	/**
+	 * Number of the latest creation of the instructions. Results of an older
+	 * creation (e.g. of a replaced route) are ignored.
+	 */
+	private int instructionCreationNumber;
+
 	/**
 	 * Location manager to monitor the user's location
 	 */
@@ -155,58 +239,65 @@ public class NaviActivity extends MapActivity implements OnInitListener,
 	private String provider;
 
 	/**
-	 * Minimum distance for a route segment to use a NowInstruction
+	 * Minimum speed in m/s for the bearing of a location to be used for
+	 * matching it onto the route
 	 */
-	private final int MIN_DISTANCE_FOR_NOW_INSTRUCTION = 100;
+	private final float MIN_SPEED_FOR_BEARING = 2;
 
 	/**
-	 * The NowInstruction will be returned at this distance before reaching the
-	 * next decision point
+	 * Distance to the route in meters above which the user is leaving the
+	 * route
 	 */
-	private final int DISTANCE_FOR_NOW_INSTRUCTION = 48;
+	private final double OFF_ROUTE_DISTANCE = 50;
 
 	/**
-	 * Variable to control if the usage of a NowInstruction has been checked
+	 * Distance to the route in meters below which the user is back on the
+	 * route
 	 */
-	private boolean nowInstructionChecked = false;
+	private final double ON_ROUTE_DISTANCE = 25;
 
 	/**
-	 * Variable to control if a NowInstruction will be used
+	 * Time in milliseconds the user has to stay beyond the
+	 * <code>OFF_ROUTE_DISTANCE</code> until the guidance is updated
 	 */
-	private boolean nowInstructionUsed = false;
+	private final long OFF_ROUTE_DWELL_TIME = 1000;
 
 	/**
-	 * Maximum distance to a decision point when it is supposed to be reached
+	 * Detects when the user has left the route to update the guidance
 	 */
-	private final int MAX_DISTANCE_TO_DECISION_POINT = 32;
+	private OffRouteDetector offRouteDetector;
 
 	/**
-	 * Store the last distance between the next decision point and the current
-	 * location. Is set to 0 when the instruction is updated.
+	 * The last location of the user. <code>null</code> if it is not known
+	 * yet.
 	 */
-	private double lastDistanceDP1 = 0;
+	private Location lastLocation;
 
 	/**
-	 * Store the last distance between the decision point after next and the
-	 * current location. Is set to 0 when the instruction is updated.
+	 * Adapts the rate of the location updates to the distance to the next
+	 * decision point
 	 */
-	private double lastDistanceDP2 = 0;
+	private LocationScheduler locationScheduler;
 
 	/**
-	 * Counts the distance changes between the next decision point, the decision
-	 * point after next and the current location. Is set to 0 after the
-	 * instruction has been updated. The instruction is updated when the counter
-	 * reaches its maximum negative value (<code>(-1) * MAX_COUNTER_VALUE</code>
-	 * ) or the next decision point has been reached. If the counter reaches the
-	 * maximum positive value (<code>MAX_COUNTER_VALUE</code>), the whole
-	 * guidance will be updated.
+	 * Number of route segments ahead of the current instruction whose
+	 * instructions are created in advance. Passed instructions are dropped.
+	 * -1 to create all instructions at once.
 	 */
-	private int distanceCounter = 0;
+	private final int INSTRUCTION_LOOK_AHEAD = 3;
 
 	/**
-	 * Maximum value for the <code>distanceCounter</code>.
+	 * Variable to control if the guidance is being updated after a driving
+	 * error
 	 */
-	private final int MAX_COUNTER_VALUE = 5;
+	private boolean rerouting = false;
+
+	/**
+	 * Variable to control if the first instruction of the current route has
+	 * been created but not displayed yet. It is displayed as soon as the
+	 * route has been drawn on the map.
+	 */
+	private boolean firstInstructionPending = false;
 
 	// --- End of route and instruction objects ---
 
@@ -216,11 +307,16 @@ public class NaviActivity extends MapActivity implements OnInitListener,
 	private TextToSpeech tts;
 
 	/**
-	 * Store all logs of the <code>onLocationChanged()</code> and
-	 * <code>updateInstruction()</code> methods in this String to display them
-	 * on the application via the <code>OptionsMenu</code>
+	 * Maximum number of entries kept by the debugger
+	 */
+	private final int DEBUGGER_CAPACITY = 1000;
+
+	/**
+	 * Store the latest logs of the <code>onLocationChanged()</code> and
+	 * <code>updateInstruction()</code> methods to display them on the
+	 * application via the <code>OptionsMenu</code>
 	 */
-	private String debugger = "";
+	private NavigationLog debugger = new NavigationLog(DEBUGGER_CAPACITY);
 
 	/**
 	 * This method is called when the application has been started
@@ -230,13 +326,53 @@ public class NaviActivity extends MapActivity implements OnInitListener,
 		super.onCreate(savedInstanceState);
 		setContentView(R.layout.navi);
 
-		// Get the route information from the intent
-		Intent intent = getIntent();
-		this.str_currentLocation = intent.getStringExtra("str_currentLocation");
-		this.str_destination = intent.getStringExtra("str_destination");
-		this.destination_lat = intent.getDoubleExtra("destination_lat", 0.0);
-		this.destination_lng = intent.getDoubleExtra("destination_lng", 0.0);
-		this.routeOptions = intent.getStringExtra("routeOptions");
+		// Get the navigation session from the MainActivity. If it is not
+		// available anymore, get the route information from the intent.
+		this.session = getNaviApplication().takeNavigationSession();
+		if (this.session == null) {
+			Intent intent = getIntent();
+			this.session = new NavigationSession(
+					intent.getStringExtra("str_currentLocation"),
+					intent.getStringExtra("str_destination"),
+					intent.getDoubleExtra("destination_lat", 0.0),
+					intent.getDoubleExtra("destination_lng", 0.0),
+					intent.getStringExtra("routeOptions"));
+		}
+		this.str_currentLocation = session.getCurrentLocation();
+		this.str_destination = session.getDestination();
+		this.destination_lat = session.getDestinationLat();
+		this.destination_lng = session.getDestinationLng();
+		this.routeOptions = session.getRouteOptions();
+
+		// Initialize the executor for the instructions
+		this.instructionExecutor = Executors.newSingleThreadExecutor();
+
+		// Initialize the executor for the locations and the filter that
+		// smooths them
+		this.locationExecutor = Executors.newSingleThreadExecutor();
+		this.locationFilter = new KalmanLocationFilter();
+
+		// Update the guidance when the user has left the route
+		this.offRouteDetector = new OffRouteDetector(OFF_ROUTE_DISTANCE,
+				ON_ROUTE_DISTANCE, OFF_ROUTE_DWELL_TIME,
+				new OnOffRouteListener() {
+
+					@Override
+					public void onOffRoute() {
+						final Location location = lastLocation;
+						runOnUiThread(new Runnable() {
+
+							@Override
+							public void run() {
+								updateGuidance(location);
+							}
+						});
+					}
+				});
+
+		// Request the location updates at the highest rate until the user is
+		// located on the route
+		this.locationScheduler = new LocationScheduler();
 
 		// Initialize the TextToSpeech
 		tts = new TextToSpeech(this, this);
@@ -263,11 +399,20 @@ public class NaviActivity extends MapActivity implements OnInitListener,
 		// Add the destination overlay to the map
 		addDestinationOverlay(destination_lat, destination_lng);
 
-		// Calculate the route
-		calculateRoute();
+		// Calculate the route unless it has already been calculated by the
+		// MainActivity. In the single request mode the route is drawn from
+		// the guidance information only.
+		if (!getResources().getBoolean(R.bool.singleRequestMode)
+				&& session.getRouteResponse() == null) {
+			calculateRoute();
+		}
+
+		// Zoom to current location
+		map.getController().animateTo(myLocationOverlay.getMyLocation());
+		map.getController().setZoom(18);
 
 		// Get the guidance information and create the instructions
-		getGuidance();
+		getGuidance(false);
 	}
 
 	/**
@@ -400,44 +545,32 @@ public class NaviActivity extends MapActivity implements OnInitListener,
 		});
 		// Calculate the route and display it on the map
 		rm.createRoute(str_currentLocation, str_destination);
-
-		// Zoom to current location
-		map.getController().animateTo(myLocationOverlay.getMyLocation());
-		map.getController().setZoom(18);
 	}
 
 	/**
 	 * Get the guidance information from MapQuest
+	 * 
+	 * @param reroute
+	 *            <code>TRUE</code>: Replace the route of the current guidance
+	 *            instead of starting a new one
 	 */
-	private void getGuidance() {
-		// Create the URL to request the guidance from MapQuest
-		String url;
-		try {
-			url = "https://open.mapquestapi.com/guidance/v1/route?key="
-					+ getResources().getString(R.string.apiKey)
-					+ "&from="
-					+ URLEncoder.encode(str_currentLocation, "UTF-8")
-					+ "&to="
-					+ URLEncoder.encode(str_destination, "UTF-8")
-					+ "&narrativeType=text&fishbone=false&callback=renderBasicInformation";
-		} catch (UnsupportedEncodingException e) {
-			Log.e("NaviActivity",
-					"Could not encode the URL. This is the error message: "
-							+ e.getMessage());
-			return;
-		}
-
-		// Get the data. The instructions are created afterwards.
-		GetJsonTask jsonTask = new GetJsonTask();
-		jsonTask.execute(url);
+	private void getGuidance(boolean reroute) {
+		// Get the data from the session, the cache or from MapQuest. The
+		// instructions are created afterwards.
+		GetJsonTask jsonTask = new GetJsonTask(reroute);
+		jsonTask.execute(str_currentLocation, str_destination);
 	}
 
 	/**
-	 * This is a class to get the JSON file asynchronously from the given URL.
+	 * This is a class to get the guidance information asynchronously. The
+	 * parameters are the current location and the destination. The guidance
+	 * information that has been downloaded in advance by the navigation
+	 * session is used when the navigation is started. Otherwise it is taken
+	 * from the guidance cache or downloaded by the guidance client.
 	 * 
 	 * @author Marius Runde
 	 */
-	private class GetJsonTask extends AsyncTask<String, Void, JSONObject> {
+	private class GetJsonTask extends AsyncTask<String, Void, Route> {
 
 		/**
 		 * Progress dialog to inform the user about the download
@@ -446,86 +579,85 @@ public class NaviActivity extends MapActivity implements OnInitListener,
 				NaviActivity.this);
 
 		/**
-		 * Count the time needed for the data download
+		 * Count the time needed for the data download in milliseconds
 		 */
-		private int downloadTimer;
+		private long downloadTimer;
+
+		/**
+		 * Replace the route of the current guidance instead of starting a new
+		 * one
+		 */
+		private boolean reroute;
+
+		/**
+		 * Constructor of the GetJsonTask class
+		 * 
+		 * @param reroute
+		 *            <code>TRUE</code>: Replace the route of the current
+		 *            guidance instead of starting a new one
+		 */
+		public GetJsonTask(boolean reroute) {
+			this.reroute = reroute;
+		}
 
 		@Override
 		protected void onPreExecute() {
-			// Display progress dialog
-			progressDialog.setMessage("Downloading guidance...");
-			progressDialog.show();
-			progressDialog.setOnCancelListener(new OnCancelListener() {
-
-				@Override
-				public void onCancel(DialogInterface dialog) {
-					// Cancel the download when the "Cancel" button has been
-					// clicked
-					GetJsonTask.this.cancel(true);
-				}
-			});
+			// Display progress dialog (not while the user is already being
+			// guided)
+			if (!reroute) {
+				progressDialog.setMessage("Downloading guidance...");
+				progressDialog.show();
+				progressDialog.setOnCancelListener(new OnCancelListener() {
+
+					@Override
+					public void onCancel(DialogInterface dialog) {
+						// Cancel the download when the "Cancel" button has
+						// been clicked
+						GetJsonTask.this.cancel(true);
+					}
+				});
+			}
 
 			// Set timer to current time
-			downloadTimer = Calendar.getInstance().get(Calendar.SECOND);
+			downloadTimer = System.currentTimeMillis();
 		}
 
 		@Override
-		protected JSONObject doInBackground(String... url) {
-			// Get the data from the URL
-			String output = "";
-			HttpClient httpclient = new DefaultHttpClient();
-			HttpResponse response;
-			try {
-				response = httpclient.execute(new HttpGet(url[0]));
-				StatusLine statusLine = response.getStatusLine();
-				if (statusLine.getStatusCode() == HttpStatus.SC_OK) {
-					ByteArrayOutputStream out = new ByteArrayOutputStream();
-					response.getEntity().writeTo(out);
-					out.close();
-					output = out.toString();
-				} else {
-					// Close the connection
-					response.getEntity().getContent().close();
-					throw new IOException(statusLine.getReasonPhrase());
+		protected Route doInBackground(String... params) {
+			// Make sure that the shared features have been loaded before the
+			// instructions are created on the UI thread
+			getNaviApplication().getFeatureRepository();
+
+			// Use the guidance information of the session if it has been
+			// downloaded in advance
+			if (!reroute) {
+				Route route = session.getGuidance();
+				if (route != null) {
+					Log.i("GetJsonTask", "Guidance has been prefetched");
+					return route;
 				}
-			} catch (Exception e) {
-				Log.e("GetJsonTask",
-						"Could not get the data. This is the error message: "
-								+ e.getMessage());
-				return null;
 			}
 
-			// Delete the "renderBasicInformation" stuff at the beginning and
-			// end of the output if needed to convert it to a JSONObject
-			if (output.startsWith("renderBasicInformation(")) {
-				output = output.substring(23, output.length());
-			}
-			if (output.endsWith(");")) {
-				output = output.substring(0, output.length() - 2);
-			}
-
-			// Convert the output to a JSONObject
 			try {
-				JSONObject result = new JSONObject(output);
-				return result;
-			} catch (JSONException e) {
+				return getNaviApplication().getGuidanceClient().getRoute(
+						params[0], params[1], routeOptions);
+			} catch (Exception e) {
 				Log.e("GetJsonTask",
-						"Could not convert output to JSONObject. This is the error message: "
+						"Could not get the data. This is the error message: "
 								+ e.getMessage());
 				return null;
 			}
 		}
 
 		@Override
-		protected void onPostExecute(JSONObject result) {
+		protected void onPostExecute(Route result) {
 			// Dismiss progress dialog
 			progressDialog.dismiss();
 
 			// Write the time needed for the download into the log
-			downloadTimer = Calendar.getInstance().get(Calendar.SECOND)
-					- downloadTimer;
+			downloadTimer = System.currentTimeMillis() - downloadTimer;
 			Log.i("GetJsonTask", "Completed guidance download in "
-					+ downloadTimer + " seconds");
+					+ downloadTimer + " ms");
 
 			// Check if the download was successful
 			if (result == null) {
@@ -533,73 +665,65 @@ public class NaviActivity extends MapActivity implements OnInitListener,
 				Toast.makeText(NaviActivity.this,
 						getResources().getString(R.string.routeNotCalculated),
 						Toast.LENGTH_SHORT).show();
-				// Finish the activity to return to MainActivity
-				finish();
+				if (reroute) {
+					// Keep the current guidance and try again if the user
+					// is still off the route
+					rerouting = false;
+					locationExecutor.execute(new Runnable() {
+
+						@Override
+						public void run() {
+							offRouteDetector.reset();
+						}
+					});
+				} else {
+					// Finish the activity to return to MainActivity
+					finish();
+				}
+			} else if (reroute) {
+				// Replace the route and display the first instruction
+				replaceRoute(result);
 			} else {
-				// Create the instructions
+				// Create the instruction manager
 				createInstructions(result);
 
 				// Draw the route and display the first instruction
-				drawRoute(result);
+				if (im != null) {
+					drawRoute();
+				}
 			}
 		}
 	}
 
 	/**
-	 * Create the instructions for the navigation
+	 * Create the instruction manager for the navigation. No instruction is
+	 * created on the UI thread.
 	 * 
-	 * @param guidance
-	 *            The guidance information from MapQuest
-	 */
-	private void createInstructions(JSONObject guidance) {
-		// Load the landmarks as a JSONObject from res/raw/landmarks.json
-		InputStream is = getResources().openRawResource(R.raw.landmarks);
-		JSONObject landmarks = null;
-		try {
-			String rawJson = IOUtils.toString(is, "UTF-8");
-			landmarks = new JSONObject(rawJson);
-		} catch (Exception e) {
-			// Could not load landmarks
-			Log.e("NaviActivity",
-					"Could not load landmarks. This is the error message: "
-							+ e.getMessage());
-		}
-
-		// Load the street furniture as a JSONArray from
-		// res/raw/streetfurniture.json
-		is = getResources().openRawResource(R.raw.streetfurniture);
-		JSONArray streetFurniture = null;
-		try {
-			String rawJson = IOUtils.toString(is, "UTF-8");
-			streetFurniture = new JSONArray(rawJson);
-		} catch (Exception e) {
-			// Could not load street furniture
-			Log.e("NaviActivity",
-					"Could not load street furniture. This is the error message: "
-							+ e.getMessage());
-		}
-
-		// Load the intersections as a JSONArray from res/raw/intersections.json
-		is = getResources().openRawResource(R.raw.intersections);
-		JSONArray intersections = null;
-		try {
-			String rawJson = IOUtils.toString(is, "UTF-8");
-			intersections = new JSONArray(rawJson);
-		} catch (Exception e) {
-			// Could not load intersections
-			Log.e("NaviActivity",
-					"Could not load intersections. This is the error message: "
-							+ e.getMessage());
-		}
-
-		// Create the instruction manager
-		im = new InstructionManager(guidance, landmarks, streetFurniture,
-				intersections);
+	 * @param route
+	 *            The route created from the guidance information
+	 */
+	private void createInstructions(Route route) {
+		// Get the shared landmarks, street furniture and intersections
+		FeatureRepository features = getNaviApplication()
+				.getFeatureRepository();
+		if (features == null) {
+			// Import was not successful
+			Toast.makeText(this,
+					getResources().getString(R.string.jsonImportNotSuccessful),
+					Toast.LENGTH_SHORT).show();
+			// Finish the activity to return to MainActivity
+			finish();
+			return;
+		}
+
+		// Create the instruction manager. The instructions are created in
+		// the background step by step after the route has been drawn (see
+		// createInstructionsInBackground()).
+		im = new InstructionManager(route, features);
+		im.setLookAhead(INSTRUCTION_LOOK_AHEAD);
+		startRouteProgress(route);
 		// Check if the import was successful
-		if (im.isImportSuccessful()) {
-			// Create the instructions
-			im.createInstructions();
-		} else {
+		if (!im.isImportSuccessful()) {
 			// Import was not successful
 			Toast.makeText(this,
 					getResources().getString(R.string.jsonImportNotSuccessful),
@@ -610,12 +734,16 @@ public class NaviActivity extends MapActivity implements OnInitListener,
 	}
 
 	/**
-	 * Draw the route with the given shapePoints from the guidance information
-	 * 
-	 * @param json
-	 *            The guidance information from MapQuest
+	 * @return The application holding the shared features
+	 */
+	private NaviApplication getNaviApplication() {
+		return (NaviApplication) getApplication();
+	}
+
+	/**
+	 * Draw the route with the shapePoints from the guidance information
 	 */
-	private void drawRoute(JSONObject json) {
+	private void drawRoute() {
 		// Set custom line style
 		Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
 		paint.setColor(Color.BLUE);
@@ -623,13 +751,19 @@ public class NaviActivity extends MapActivity implements OnInitListener,
 		paint.setStrokeWidth(5);
 
 		// Initialize the route overlay
-		List<GeoPoint> shapePoints = new ArrayList<GeoPoint>(
-				Arrays.asList(this.im.getShapePoints()));
-		LineOverlay drawnRoute = new LineOverlay(paint);
-		drawnRoute.setData(shapePoints);
+		this.routeOverlay = new RouteOverlay(paint);
+		this.routeOverlay.setData(this.im.getShapePoints());
+		this.routeOverlay.setOnRouteDrawnListener(new OnRouteDrawnListener() {
+
+			@Override
+			public void onRouteDrawn(RouteOverlay overlay) {
+				Log.d("NaviActivity", "Route overlay drawn");
+				displayFirstInstructionIfReady();
+			}
+		});
 
 		// Add the drawn route to the map
-		map.getOverlays().add(drawnRoute);
+		map.getOverlays().add(this.routeOverlay);
 		Log.d("NaviActivity", "Route overlay added");
 
 		if (!im.isImportSuccessful()) {
@@ -640,12 +774,223 @@ public class NaviActivity extends MapActivity implements OnInitListener,
 			// Finish the activity to return to the MainActivity
 			finish();
 		} else {
-			do {
-				// Route is not displayed yet
-			} while (!this.isRouteDisplayed());
+			// Create the instructions while the route is being drawn. The
+			// first one is displayed as soon as both are finished.
+			createInstructionsInBackground();
+		}
+	}
 
-			// Get the first instruction and display it
-			displayInstruction(im.getInstruction(0));
+	/**
+	 * Replace the route of the current guidance after a driving error. The
+	 * map, the TextToSpeech engine and the landmarks, street furniture and
+	 * intersections of the instruction manager are kept.
+	 * 
+	 * @param route
+	 *            The new route
+	 */
+	private void replaceRoute(final Route route) {
+		// Stop creating the instructions of the old route
+		if (this.instructionCreation != null) {
+			this.instructionCreation.cancel(true);
+		}
+		this.firstInstructionPending = false;
+
+		// Replace the route on the location executor, so no location is
+		// matched onto the old route while the new one is used by the
+		// instruction manager
+		locationExecutor.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				im.setRoute(route);
+				resetRouteProgress(route);
+				runOnUiThread(new Runnable() {
+
+					@Override
+					public void run() {
+						displayReplacedRoute();
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Draw the replaced route and create its instructions after the route
+	 * progress has been reset
+	 */
+	private void displayReplacedRoute() {
+		// Draw the new route
+		this.routeOverlay.setData(im.getShapePoints());
+		map.invalidate();
+		Log.d("NaviActivity", "Route overlay replaced");
+		rerouting = false;
+
+		// Create the instructions and display the first one as soon as both
+		// the instruction and the new route overlay are available
+		createInstructionsInBackground();
+	}
+
+	/**
+	 * Start to follow the progress of the user on a new route on the location
+	 * executor
+	 * 
+	 * @param route
+	 *            The new route
+	 */
+	private void startRouteProgress(final Route route) {
+		locationExecutor.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				resetRouteProgress(route);
+			}
+		});
+	}
+
+	/**
+	 * Reset the matcher, the trigger scheduler and the off-route detection
+	 * for a new route. Is called on the location executor.
+	 * 
+	 * @param route
+	 *            The new route
+	 */
+	private void resetRouteProgress(Route route) {
+		matcher = new RouteMatcher(route);
+		triggers = new TriggerScheduler();
+		offRouteDetector.reset();
+	}
+
+	/**
+	 * Create the instructions of the current route in the background. The
+	 * first instruction is displayed as soon as it has been created while the
+	 * following ones are still being created. An instruction that is needed
+	 * before the background creation has reached it is created immediately
+	 * by the instruction manager.
+	 */
+	private void createInstructionsInBackground() {
+		this.instructionCreation = this.instructionExecutor
+				.submit(new InstructionCreator(this.im,
+						++this.instructionCreationNumber, true));
+	}
+
+	/**
+	 * Create the instructions ahead of the current instruction in the
+	 * background after it has changed (only required in the lazy mode of the
+	 * instruction manager)
+	 */
+	private void createInstructionsAhead() {
+		if (!im.isLookAheadComplete()) {
+			this.instructionCreation = this.instructionExecutor
+					.submit(new InstructionCreator(this.im,
+							this.instructionCreationNumber, false));
+		}
+	}
+
+	/**
+	 * This is a class to create the instructions of a route in the
+	 * background.
+	 * 
+	 * @author Marius Runde
+	 */
+	private class InstructionCreator implements Runnable {
+
+		/**
+		 * The instruction manager of the route
+		 */
+		private InstructionManager manager;
+
+		/**
+		 * Number of this creation of the instructions
+		 */
+		private int number;
+
+		/**
+		 * <code>TRUE</code>: Display the first instruction as soon as it has
+		 * been created
+		 */
+		private boolean displayFirst;
+
+		/**
+		 * Constructor of the InstructionCreator class
+		 * 
+		 * @param manager
+		 *            The instruction manager of the route
+		 * @param number
+		 *            Number of this creation of the instructions
+		 * @param displayFirst
+		 *            <code>TRUE</code>: Display the first instruction as soon
+		 *            as it has been created
+		 */
+		public InstructionCreator(InstructionManager manager, int number,
+				boolean displayFirst) {
+			this.manager = manager;
+			this.number = number;
+			this.displayFirst = displayFirst;
+		}
+
+		@Override
+		public void run() {
+			long start = System.currentTimeMillis();
+			boolean displayed = !displayFirst;
+
+			// Create the instructions segment by segment until enough have
+			// been created or the route has been replaced
+			while (!Thread.currentThread().isInterrupted()
+					&& !manager.isLookAheadComplete()
+					&& manager.createNextInstructions()) {
+				if (!displayed && manager.getNumberOfInstructions() > 0) {
+					Log.i("NaviActivity", "First instruction created in "
+							+ (System.currentTimeMillis() - start) + " ms");
+					displayFirstInstruction(number);
+					displayed = true;
+				}
+			}
+			Log.i("NaviActivity", "Instructions created in "
+					+ (System.currentTimeMillis() - start) + " ms");
+		}
+	}
+
+	/**
+	 * Display the first instruction on the UI thread as soon as the route has
+	 * been drawn
+	 * 
+	 * @param number
+	 *            Number of the creation of the instructions that has created
+	 *            the instruction
+	 */
+	private void displayFirstInstruction(final int number) {
+		runOnUiThread(new Runnable() {
+
+			@Override
+			public void run() {
+				// Ignore the instruction of a replaced route
+				if (number == instructionCreationNumber) {
+					firstInstructionPending = true;
+					displayFirstInstructionIfReady();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Display the first instruction if it has been created and the route has
+	 * been drawn on the map. Is called on the UI thread whenever one of both
+	 * has been finished.<br/>
+	 * <br/>
+	 * The location executor may have passed the first decision point in the
+	 * meantime. Then the following instruction is displayed by
+	 * <code>updateInstruction()</code> and nothing is done here.
+	 */
+	private void displayFirstInstructionIfReady() {
+		if (this.firstInstructionPending && this.isRouteDisplayed()) {
+			this.firstInstructionPending = false;
+			// Get the instruction before its index, so it is still the first
+			// one if the index has not changed
+			Instruction instruction = im.getCurrentInstruction();
+			if (instruction != null && im.getCurrentInstructionIndex() == 0) {
+				displayInstruction(instruction);
+			}
 		}
 	}
 
@@ -668,11 +1013,7 @@ public class NaviActivity extends MapActivity implements OnInitListener,
 
 	@Override
 	protected boolean isRouteDisplayed() {
-		if (this.map.getOverlays().size() > 1) {
-			return true;
-		} else {
-			return false;
-		}
+		return this.routeOverlay != null && this.routeOverlay.isDrawn();
 	}
 
 	/**
@@ -693,24 +1034,40 @@ public class NaviActivity extends MapActivity implements OnInitListener,
 		// Handle item selection
 		switch (item.getItemId()) {
 		case R.id.menu_allInstructions:
-			// Create an array of all verbal instructions
-			String[] allInstructions = im.getVerbalInstructions();
+			// The instructions are only created ahead of the current one, so
+			// all of them are created in the background first
+			final InstructionManager manager = im;
+			this.instructionExecutor.submit(new Runnable() {
 
-			// Display all instructions in a list
-			AlertDialog.Builder builder1 = new AlertDialog.Builder(
-					NaviActivity.this);
-			builder1.setTitle(R.string.allInstructions);
-			builder1.setItems(allInstructions, null);
+				@Override
+				public void run() {
+					// Create an array of all verbal instructions
+					final String[] allInstructions = manager
+							.getVerbalInstructions();
+					runOnUiThread(new Runnable() {
 
-			AlertDialog alertDialog1 = builder1.create();
-			alertDialog1.show();
+						@Override
+						public void run() {
+							displayAllInstructions(allInstructions);
+						}
+					});
+				}
+			});
 			return true;
 		case R.id.menu_debugger:
 			// Display all stored logs in a list
 			AlertDialog.Builder builder2 = new AlertDialog.Builder(
 					NaviActivity.this);
 			builder2.setTitle(R.string.menu_debugger);
-			builder2.setMessage(debugger);
+			builder2.setItems(debugger.toStrings(), null);
+			builder2.setPositiveButton(R.string.exportLog,
+					new DialogInterface.OnClickListener() {
+
+						@Override
+						public void onClick(DialogInterface dialog, int which) {
+							new ExportLogTask().execute();
+						}
+					});
 
 			AlertDialog alertDialog2 = builder2.create();
 			alertDialog2.show();
@@ -720,12 +1077,85 @@ public class NaviActivity extends MapActivity implements OnInitListener,
 		}
 	}
 
+	/**
+	 * Display all instructions in a list
+	 * 
+	 * @param allInstructions
+	 *            All verbal instructions
+	 */
+	private void displayAllInstructions(String[] allInstructions) {
+		AlertDialog.Builder builder = new AlertDialog.Builder(
+				NaviActivity.this);
+		builder.setTitle(R.string.allInstructions);
+		builder.setItems(allInstructions, null);
+
+		AlertDialog alertDialog = builder.create();
+		alertDialog.show();
+	}
+
+	/**
+	 * This is a class to export the logs of the debugger into a file in the
+	 * background. The file is stored in the external files directory of the
+	 * application.
+	 * 
+	 * @author Marius Runde
+	 */
+	private class ExportLogTask extends AsyncTask<Void, Void, File> {
+
+		@Override
+		protected File doInBackground(Void... params) {
+			File directory = getExternalFilesDir(null);
+			if (directory == null) {
+				Log.e("ExportLogTask", "External storage is not available");
+				return null;
+			}
+			File file = new File(directory, "debugger-"
+					+ System.currentTimeMillis() + ".txt");
+			Writer out = null;
+			try {
+				out = new BufferedWriter(new FileWriter(file));
+				debugger.writeTo(out);
+				return file;
+			} catch (IOException e) {
+				Log.e("ExportLogTask",
+						"Could not export the logs. This is the error message: "
+								+ e.getMessage());
+				return null;
+			} finally {
+				IOUtils.closeQuietly(out);
+			}
+		}
+
+		@Override
+		protected void onPostExecute(File result) {
+			if (result == null) {
+				Toast.makeText(NaviActivity.this, "Could not export the logs",
+						Toast.LENGTH_SHORT).show();
+			} else {
+				Toast.makeText(NaviActivity.this,
+						"Logs exported to " + result.getPath(),
+						Toast.LENGTH_LONG).show();
+			}
+		}
+	}
+
+	@Override
+	protected void onDestroy() {
+		// Stop creating the instructions and processing the locations
+		this.instructionExecutor.shutdownNow();
+		this.locationExecutor.shutdownNow();
+		// Stop downloading the guidance information in advance
+		this.session.cancel();
+		super.onDestroy();
+	}
+
 	@Override
 	protected void onResume() {
 		// Enable features of the MyLocationOverlay
 		myLocationOverlay.enableMyLocation();
-		// Request location updates at startup every 500ms for changes of 1m
-		lm.requestLocationUpdates(provider, 500, 1, this);
+		// Request location updates at the rate of the location scheduler
+		requestLocationUpdates();
+		resumed = true;
 		super.onResume();
 	}
 
@@ -736,6 +1166,7 @@ public class NaviActivity extends MapActivity implements OnInitListener,
 		myLocationOverlay.disableMyLocation();
 		// Disable the LocationManager when in the background
 		lm.removeUpdates(this);
+		resumed = false;
 	}
 
 	@Override
@@ -752,96 +1183,132 @@ public class NaviActivity extends MapActivity implements OnInitListener,
 
 	@Override
 	public void onLocationChanged(Location location) {
-		debugger += "onLocationChanged() called...\n";
+		// Process the location in the background. A location that has not
+		// been processed yet is replaced, so the executor is only started if
+		// there was none.
+		if (pendingLocation.getAndSet(location) == null) {
+			locationExecutor.execute(locationProcessor);
+		}
+	}
 
+	/**
+	 * Process a location of the user on the location executor. The resulting
+	 * changes of the instruction view and the spoken instructions are posted
+	 * to the UI thread.
+	 * 
+	 * @param location
+	 *            The location
+	 */
+	private void processLocation(Location location) {
+		// Smooth the jitter of the location, so it does not trigger the
+		// instructions early or cause a reroute
+		location = locationFilter.filter(location);
 		double lat = location.getLatitude();
 		double lng = location.getLongitude();
 
-		// Check if the instruction manager has been initialized already
-		if (im != null) {
-			// Get the coordinates of the next decision point
-			double dp1Lat = im.getCurrentInstruction().getDecisionPoint()
-					.getLatitude();
-			double dp1Lng = im.getCurrentInstruction().getDecisionPoint()
-					.getLongitude();
-
-			// Get the coordinates of the decision point after next
-			double dp2Lat = im.getNextInstructionLocation().getLatitude();
-			double dp2Lng = im.getNextInstructionLocation().getLongitude();
-
-			// Calculate the distance to the next decision point
-			float[] results = new float[1];
-			Location.distanceBetween(lat, lng, dp1Lat, dp1Lng, results);
-			double distanceDP1 = results[0];
-
-			// Check whether a now instruction must be used (only once for each
-			// route segment)
-			if (nowInstructionChecked == false
-					&& distanceDP1 >= MIN_DISTANCE_FOR_NOW_INSTRUCTION) {
-				nowInstructionUsed = true;
+		// Check if the instructions have been created already
+		if (matcher != null) {
+			// Match the location onto the route. The bearing is only reliable
+			// while the user is moving.
+			double bearing = Double.NaN;
+			if (location.hasBearing() && location.hasSpeed()
+					&& location.getSpeed() >= MIN_SPEED_FOR_BEARING) {
+				bearing = location.getBearing();
 			}
-			nowInstructionChecked = true;
-
-			// Calculate the distance to the decision point after next
-			Location.distanceBetween(lat, lng, dp2Lat, dp2Lng, results);
-			double distanceDP2 = results[0];
-
-			// Log the distances
-			String distancesString = "LastDistanceDP1: " + lastDistanceDP1
-					+ " | distanceDP1: " + distanceDP1 + " | LastDistanceDP2: "
-					+ lastDistanceDP2 + " | distanceDP2: " + distanceDP2;
-			debugger += distancesString + "\n";
-			Log.v("NaviActivity.onLocationChanged", distancesString);
-
-			// Check the distances with the stored ones
-			if (distanceDP1 < MAX_DISTANCE_TO_DECISION_POINT) {
-				// Distance to decision point is less than
-				// MAX_DISTANCE_TO_DECISION_POINT
-				updateInstruction();
-			} else if (distanceDP1 < DISTANCE_FOR_NOW_INSTRUCTION
-					&& nowInstructionUsed == true) {
-				// Distance to decision point is less than
-				// DISTANCE_FOR_NOW_INSTRUCTION and decreasing, so a now
-				// instruction is prompted to the user
-				updateNowInstruction();
-				// Set variable nowInstructionUsed to false, so that the now
-				// instruction is only used once
-				nowInstructionUsed = false;
-			} else if (distanceDP1 > lastDistanceDP1
-					&& distanceDP2 < lastDistanceDP2) {
-				// The distance to the next decision point has increased and the
-				// distance to the decision point after next has decreased
-				lastDistanceDP1 = distanceDP1;
-				lastDistanceDP2 = distanceDP2;
-				distanceCounter++;
-
-				String logMessage = "distanceCounter: " + distanceCounter;
-				debugger += logMessage + "\n";
-				Log.v("NaviActivity.onLocationChanged", logMessage);
-			} else if (distanceDP1 > lastDistanceDP1
-					&& distanceDP2 > lastDistanceDP2) {
-				// Distance to the next decision point and the decision point
-				// after next has increased (can lead to a driving error)
-				lastDistanceDP1 = distanceDP1;
-				lastDistanceDP2 = distanceDP2;
-				distanceCounter--;
-
-				String logMessage = "distanceIncreaseCounter: "
-						+ distanceCounter;
-				debugger += logMessage + "\n";
-				Log.v("NaviActivity.onLocationChanged", logMessage);
+			if (matcher.match(lat, lng, bearing)) {
+				updateProgress();
 			}
 
-			// Check if the whole guidance needs to be reloaded due to a driving
-			// error (user seems to go away from both the decision point and the
-			// decision point after next)
-			if (distanceCounter < (-1 * MAX_COUNTER_VALUE)) {
-				updateGuidance();
-			}
-			// Check if the instruction needs to be updated
-			if (distanceCounter > MAX_COUNTER_VALUE) {
-				updateInstruction();
-			}
+			// Log the along-route position and the distance to the route
+			debugger.add(location.getTime(), "Location", matcher.getOffset(),
+					matcher.getDistanceToRoute());
+
+			// Check if the guidance needs to be updated due to a driving
+			// error (user has left the route)
+			lastLocation = location;
+			offRouteDetector.update(matcher.getDistanceToRoute(),
+					location.getTime());
+
+			// Adapt the rate of the location updates to the distance to the
+			// next decision point
+			updateLocationSchedule(location);
+		}
+	}
+
+	/**
+	 * Request the location updates again if the location scheduler changes
+	 * their rate. The highest rate is used while the location could not be
+	 * matched onto the route.
+	 * 
+	 * @param location
+	 *            The last location of the user
+	 */
+	private void updateLocationSchedule(Location location) {
+		double decisionPointOffset = im.getDecisionPointOffset(im
+				.getCurrentInstructionIndex());
+		boolean changed;
+		if (!matcher.isMatched() || decisionPointOffset < 0) {
+			changed = locationScheduler.reset();
+		} else {
+			float speed = location.hasSpeed() ? location.getSpeed() : 0;
+			changed = locationScheduler.update(decisionPointOffset
+					- matcher.getOffset(), speed);
+		}
+		if (changed) {
+			debugger.add(location.getTime(), "Location updates",
+					locationScheduler.getMinTime(),
+					locationScheduler.getMinDistance());
+			runOnUiThread(new Runnable() {
+
+				@Override
+				public void run() {
+					if (resumed) {
+						requestLocationUpdates();
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Request the location updates at the rate of the location scheduler. A
+	 * previous request of this activity is replaced. Must be called on the UI
+	 * thread.
+	 */
+	private void requestLocationUpdates() {
+		lm.requestLocationUpdates(provider, locationScheduler.getMinTime(),
+				locationScheduler.getMinDistance(), this);
+	}
+
+	/**
+	 * Update the instruction with the along-route position of the user after
+	 * the location has been matched onto the route. The position is compared
+	 * with the next pending trigger of the current instruction: the
+	 * instruction is announced again, the now instruction is prompted shortly
+	 * before the decision point, and the current instruction is updated when
+	 * the decision point has been reached.
+	 */
+	private void updateProgress() {
+		// Set the triggers of the current instruction once it has changed
+		int instruction = im.getCurrentInstructionIndex();
+		if (instruction != triggers.getInstruction()) {
+			triggers.setInstruction(instruction,
+					im.getDecisionPointOffset(instruction));
+		}
+
+		switch (triggers.update(matcher.getOffset())) {
+		case TriggerScheduler.PRE_ANNOUNCE:
+			preAnnounceInstruction();
+			break;
+		case TriggerScheduler.NOW:
+			updateNowInstruction();
+			break;
+		case TriggerScheduler.ADVANCE:
+			updateInstruction();
+			break;
+		default:
+			// No trigger has been reached
+			break;
 		}
 	}
 
@@ -862,24 +1329,29 @@ public class NaviActivity extends MapActivity implements OnInitListener,
 
 	/**
 	 * Called when the next decision point has been reached to update the
-	 * current instruction to the following instruction.
+	 * current instruction to the following instruction. Is called on the
+	 * location executor.
 	 */
 	private void updateInstruction() {
-		String logMessage = "Updating Instruction...";
-		debugger += logMessage + "\n";
-		Log.i("NaviActivity", logMessage);
+		debugger.add(System.currentTimeMillis(), "Updating Instruction...");
+		Log.i("NaviActivity", "Updating Instruction...");
 
-		// Reset the distances, their counters, and the NowInstruction
-		// controllers
-		lastDistanceDP1 = 0;
-		lastDistanceDP2 = 0;
-		distanceCounter = 0;
-		nowInstructionChecked = false;
-		nowInstructionUsed = false;
+		// Get the next instruction and display it on the UI thread
+		final Instruction nextInstruction = im.getNextInstruction();
+		if (nextInstruction == null) {
+			// The last instruction has already been reached
+			return;
+		}
+		runOnUiThread(new Runnable() {
 
-		// Get the next instruction and display it
-		Instruction nextInstruction = im.getNextInstruction();
-		displayInstruction(nextInstruction);
+			@Override
+			public void run() {
+				displayInstruction(nextInstruction);
+
+				// Create the following instructions
+				createInstructionsAhead();
+			}
+		});
 	}
 
 	/**
@@ -956,40 +1428,74 @@ public class NaviActivity extends MapActivity implements OnInitListener,
 	}
 
 	/**
-	 * Called when the next decision point will be reached in
-	 * <code>DISTANCE_FOR_NOW_INSTRUCTION</code> and a
+	 * Called when the current instruction shall be announced again on the
+	 * way to its decision point. Is called on the location executor.
+	 */
+	private void preAnnounceInstruction() {
+		debugger.add(System.currentTimeMillis(), "Announcing Instruction...");
+		runOnUiThread(new Runnable() {
+
+			@Override
+			public void run() {
+				speakInstruction();
+			}
+		});
+	}
+
+	/**
+	 * Called when the next decision point will be reached shortly and a
 	 * <code>NowInstruction</code> is used to update the current instruction to
 	 * the instruction. The map is not changed as in the
-	 * <code>updateInstruction</code> method.
+	 * <code>updateInstruction</code> method. Is called on the location
+	 * executor.
 	 */
 	private void updateNowInstruction() {
 		// Get the now instruction
 		Instruction nowInstruction = im.getNowInstruction();
 
-		// --- Update the instruction view ---
 		// Get the verbal instruction
-		String verbalInstruction = nowInstruction.toString();
-		// Display the verbal instruction
-		this.tv_instruction.setText(verbalInstruction);
+		final String verbalInstruction = nowInstruction.toString();
+		runOnUiThread(new Runnable() {
 
-		// The instruction image stays the same so nothing has to be done here
+			@Override
+			public void run() {
+				// --- Update the instruction view ---
+				// Display the verbal instruction
+				tv_instruction.setText(verbalInstruction);
 
-		// Speak out the verbal instruction
-		speakInstruction();
+				// The instruction image stays the same so nothing has to be
+				// done here
+
+				// Speak out the verbal instruction
+				speakInstruction();
+			}
+		});
 	}
 
 	/**
 	 * Update the complete guidance. This method is called when a driving error
-	 * has occurred.
+	 * has occurred. The guidance is requested from the current location and
+	 * replaces the route of the current guidance when it has been received.
+	 * 
+	 * @param location
+	 *            The current location
 	 */
-	private void updateGuidance() {
+	private void updateGuidance(Location location) {
+		// Check if the guidance is already being updated
+		if (rerouting) {
+			return;
+		}
+		rerouting = true;
+
 		// Inform the user about updating the guidance
+		debugger.add(System.currentTimeMillis(), "Updating guidance...");
 		Log.i("NaviActivity", "Updating guidance...");
 		tts.setSpeechRate((float) 1);
 		tts.speak("Updating guidance", TextToSpeech.QUEUE_FLUSH, null);
 
-		// Restart the activity
-		finish();
-		startActivity(getIntent());
+		// Request the guidance from the current location
+		str_currentLocation = "{latLng:{lat:" + location.getLatitude()
+				+ ",lng:" + location.getLongitude() + "}}";
+		getGuidance(true);
 	}
 }
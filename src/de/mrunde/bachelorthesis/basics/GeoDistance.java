@@ -0,0 +1,174 @@
+package de.mrunde.bachelorthesis.basics;
+
+/**
+ * Distance calculations between geographic locations given as primitive
+ * <code>double</code> values. None of the methods creates any objects, so they
+ * can be used in the inner loops of the instruction engine.<br/>
+ * <br/>
+ * Most methods expect the cosine of the latitudes (see
+ * <code>cosine(double)</code>) so that it can be calculated once for each
+ * location, e.g. for all shape points of a route with
+ * <code>cosines(double[])</code>.
+ * 
+ * @author Marius Runde
+ */
+public abstract class GeoDistance {
+
+	/**
+	 * Radius of the earth in meters (same value as used by osmdroid)
+	 */
+	public static final double EARTH_RADIUS = 6378137;
+
+	/**
+	 * Length of one degree latitude in meters
+	 */
+	public static final double METERS_PER_DEGREE = EARTH_RADIUS * Math.PI
+			/ 180;
+
+	/**
+	 * Calculate the cosine of a latitude
+	 * 
+	 * @param lat
+	 *            Latitude in degrees
+	 * @return The cosine of the latitude
+	 */
+	public static double cosine(double lat) {
+		return Math.cos(Math.toRadians(lat));
+	}
+
+	/**
+	 * Calculate the cosines of all given latitudes
+	 * 
+	 * @param latitudes
+	 *            Latitudes in degrees
+	 * @return The cosines of the latitudes
+	 */
+	public static double[] cosines(double[] latitudes) {
+		double[] result = new double[latitudes.length];
+		for (int i = 0; i < latitudes.length; i++) {
+			result[i] = cosine(latitudes[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * Calculate the great-circle distance between two locations (haversine
+	 * formula)
+	 * 
+	 * @param lat1
+	 *            Latitude of the first location
+	 * @param lng1
+	 *            Longitude of the first location
+	 * @param lat2
+	 *            Latitude of the second location
+	 * @param lng2
+	 *            Longitude of the second location
+	 * @return The distance in meters
+	 */
+	public static double haversine(double lat1, double lng1, double lat2,
+			double lng2) {
+		return haversine(lat1, lng1, cosine(lat1), lat2, lng2, cosine(lat2));
+	}
+
+	/**
+	 * Calculate the great-circle distance between two locations (haversine
+	 * formula) with the precalculated cosines of their latitudes
+	 * 
+	 * @param lat1
+	 *            Latitude of the first location
+	 * @param lng1
+	 *            Longitude of the first location
+	 * @param cos1
+	 *            Cosine of the latitude of the first location
+	 * @param lat2
+	 *            Latitude of the second location
+	 * @param lng2
+	 *            Longitude of the second location
+	 * @param cos2
+	 *            Cosine of the latitude of the second location
+	 * @return The distance in meters
+	 */
+	public static double haversine(double lat1, double lng1, double cos1,
+			double lat2, double lng2, double cos2) {
+		double sinLat = Math.sin(Math.toRadians(lat2 - lat1) / 2);
+		double sinLng = Math.sin(Math.toRadians(lng2 - lng1) / 2);
+		double a = sinLat * sinLat + cos1 * cos2 * sinLng * sinLng;
+		return EARTH_RADIUS * 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+	}
+
+	/**
+	 * Calculate the distance between two locations with the equirectangular
+	 * approximation. It is much faster than the haversine formula because it
+	 * does not need any trigonometric functions if the cosines are known.<br/>
+	 * <br/>
+	 * Compared to the haversine formula the relative error is less than
+	 * 0.0001 % for distances up to 10 km at latitudes up to 70 degrees (i.e.
+	 * less than 1 cm) and less than 0.01 % for distances up to 50 km at
+	 * latitudes up to 80 degrees. It must not be used for locations on
+	 * different sides of the antimeridian.
+	 * 
+	 * @param lat1
+	 *            Latitude of the first location
+	 * @param lng1
+	 *            Longitude of the first location
+	 * @param cos1
+	 *            Cosine of the latitude of the first location
+	 * @param lat2
+	 *            Latitude of the second location
+	 * @param lng2
+	 *            Longitude of the second location
+	 * @param cos2
+	 *            Cosine of the latitude of the second location
+	 * @return The distance in meters
+	 */
+	public static double equirectangular(double lat1, double lng1,
+			double cos1, double lat2, double lng2, double cos2) {
+		double x = (lng2 - lng1) * (cos1 + cos2) / 2;
+		double y = lat2 - lat1;
+		return METERS_PER_DEGREE * Math.sqrt(x * x + y * y);
+	}
+
+	/**
+	 * Calculate the distance between two locations stored in arrays with the
+	 * equirectangular approximation
+	 * 
+	 * @param latitudes
+	 *            Latitudes of the locations
+	 * @param longitudes
+	 *            Longitudes of the locations
+	 * @param cosines
+	 *            Cosines of the latitudes of the locations
+	 * @param i
+	 *            Index of the first location
+	 * @param j
+	 *            Index of the second location
+	 * @return The distance in meters
+	 */
+	public static double equirectangular(double[] latitudes,
+			double[] longitudes, double[] cosines, int i, int j) {
+		return equirectangular(latitudes[i], longitudes[i], cosines[i],
+				latitudes[j], longitudes[j], cosines[j]);
+	}
+
+	/**
+	 * Calculate the great-circle distance between two locations stored in
+	 * arrays (haversine formula)
+	 * 
+	 * @param latitudes
+	 *            Latitudes of the locations
+	 * @param longitudes
+	 *            Longitudes of the locations
+	 * @param cosines
+	 *            Cosines of the latitudes of the locations
+	 * @param i
+	 *            Index of the first location
+	 * @param j
+	 *            Index of the second location
+	 * @return The distance in meters
+	 */
+	public static double haversine(double[] latitudes, double[] longitudes,
+			double[] cosines, int i, int j) {
+		return haversine(latitudes[i], longitudes[i], cosines[i],
+				latitudes[j], longitudes[j], cosines[j]);
+	}
+}
@@ -1,33 +1,41 @@
 package de.mrunde.bachelorthesis.basics;
 
-import java.util.ArrayList;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.AbstractList;
 import java.util.List;
-
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import android.util.Log;
+import java.util.RandomAccess;
 
 import com.mapquest.android.maps.GeoPoint;
 
 /**
  * The Route class stores all information about route segments, maneuvers,
- * locations etc.
+ * locations etc.<br/>
+ * <br/>
+ * The shape points and route segments are stored column by column in
+ * primitive arrays. The coordinates of the shape points are stored in
+ * microdegrees (like in a <code>GeoPoint</code>), and a route segment is the
+ * position of its values in the segment tables. <code>GeoPoint</code> and
+ * <code>RouteSegment</code> objects are only created on request.<br/>
+ * <br/>
+ * The along-route offsets of all links and shape points are summed up once
+ * when the route is created. Therefore lengths, remaining distances and
+ * along-route positions are answered without iterating over the route.
  * 
  * @author Marius Runde
  */
 public class Route {
 
 	/**
-	 * Value to check if the JSON import succeeded
+	 * Version of the binary format written by <code>writeTo()</code>
 	 */
-	private boolean importSuccessful;
+	private static final int BINARY_VERSION = 1;
 
 	/**
-	 * These are the route segments between each turn action
+	 * Value to check if the JSON import succeeded
 	 */
-	private List<RouteSegment> segments;
+	private boolean importSuccessful;
 
 	/**
 	 * Store the currently used segment
@@ -35,147 +43,270 @@ public class Route {
 	private int currentSegment;
 
 	/**
-	 * All shape points that create the route
+	 * Latitudes of all shape points that create the route in microdegrees
 	 */
-	private GeoPoint[] shapePoints;
+	private int[] latitudesE6;
 
 	/**
-	 * Constructor of the Route class
-	 * 
-	 * @param json
-	 *            Guidance object returned by the MapQuest API
-	 */
-	public Route(JSONObject json) {
-		// Some temporal variables
-		int[] maneuvers;
-		int[] linkIndexes;
-		GeoPoint[] decisionPoints;
-		double[] distances;
-		int[] shapePointIndexes;
-
-		// Extract the guidance information out of the raw JSON file
-		try {
-			JSONObject guidance = json.getJSONObject("guidance");
-
-			// --- Get the maneuver types and link indexes ---
-			// First store them in a temporal List
-			List<Integer> tempManeuverList = new ArrayList<Integer>();
-			List<Integer> tempLinkList = new ArrayList<Integer>();
-			JSONArray guidanceNodeCollection = guidance
-					.getJSONArray("GuidanceNodeCollection");
-			for (int i = 0; i < guidanceNodeCollection.length(); i++) {
-				if ((guidanceNodeCollection.getJSONObject(i))
-						.has("maneuverType")) {
-					tempManeuverList.add(guidanceNodeCollection
-							.getJSONObject(i).getInt("maneuverType"));
-					tempLinkList.add(guidanceNodeCollection.getJSONObject(i)
-							.getJSONArray("linkIds").getInt(0));
-				}
-			}
-			// Then store them in an array
-			maneuvers = new int[tempManeuverList.size()];
-			linkIndexes = new int[tempLinkList.size()];
-			for (int i = 0; i < maneuvers.length; i++) {
-				maneuvers[i] = tempManeuverList.get(i);
-				linkIndexes[i] = tempLinkList.get(i);
-			}
+	 * Longitudes of all shape points that create the route in microdegrees
+	 */
+	private int[] longitudesE6;
 
-			// --- Get the decision points ---
-			JSONArray shapePoints = guidance.getJSONArray("shapePoints");
-			decisionPoints = new GeoPoint[shapePoints.length() / 2];
-			int j = 0;
-			for (int i = 0; i < shapePoints.length() - 1; i += 2) {
-				decisionPoints[j] = new GeoPoint(shapePoints.getDouble(i),
-						(Double) shapePoints.get(i + 1));
-				j++;
-			}
+	/**
+	 * Along-route offset of each shape point in meters from the start of the
+	 * route measured along the shape of the route
+	 */
+	private double[] shapePointOffsets;
 
-			// --- Get the distances and shape point indexes ---
-			JSONArray guidanceLinkCollection = guidance
-					.getJSONArray("GuidanceLinkCollection");
-			distances = new double[guidanceLinkCollection.length()];
-			shapePointIndexes = new int[guidanceLinkCollection.length()];
-			for (int i = 0; i < guidanceLinkCollection.length(); i++) {
-				distances[i] = guidanceLinkCollection.getJSONObject(i)
-						.getDouble("length");
-				shapePointIndexes[i] = guidanceLinkCollection.getJSONObject(i)
-						.getInt("shapeIndex");
-			}
+	/**
+	 * Along-route offset of the beginning of each link in the
+	 * <code>GuidanceLinkCollection</code> in meters. The last element is the
+	 * length of the route.
+	 */
+	private double[] linkOffsets;
 
-			// Create the route segments
-			createRouteSegments(maneuvers, linkIndexes, decisionPoints,
-					distances, shapePointIndexes);
+	/**
+	 * Index of the starting shape point of each route segment
+	 */
+	private int[] segmentStartIndexes;
 
-			// Set current route segment to first segment
-			this.currentSegment = 0;
+	/**
+	 * Index of the final shape point of each route segment
+	 */
+	private int[] segmentEndIndexes;
 
-			// Initialize the shapePoints
-			this.shapePoints = decisionPoints;
+	/**
+	 * Maneuver type at the final position of each route segment
+	 */
+	private int[] segmentManeuverTypes;
 
-			// Import has been successful
-			this.importSuccessful = true;
-		} catch (JSONException e) {
-			// Import has not been successful
-			Log.e("InstructionManager",
-					"Could not extract the guidance JSONObject. This is the error message: "
-							+ e.getMessage());
-			this.importSuccessful = false;
-		}
+	/**
+	 * Index of the link in the <code>GuidanceLinkCollection</code> that
+	 * begins at the final position of each route segment
+	 */
+	private int[] segmentEndLinks;
+
+	/**
+	 * Rounded distance of each route segment
+	 */
+	private int[] segmentDistances;
+
+	/**
+	 * Constructor of the Route class for <code>readFrom()</code>
+	 */
+	private Route() {
 	}
 
 	/**
-	 * Create the route segments out of the complete route information
+	 * Constructor of the Route class with the guidance information already
+	 * extracted from the MapQuest API response (e.g. by the
+	 * <code>GuidanceParser</code>)
 	 * 
 	 * @param maneuvers
 	 *            The maneuver types
 	 * @param linkIndexes
 	 *            All indexes of required entries in the
 	 *            <code>GuidanceLinkCollection</code>
-	 * @param decisionPoints
-	 *            All shape points returned by the MapQuest API
+	 * @param shapePoints
+	 *            Latitudes and longitudes of all shape points in alternating
+	 *            order
 	 * @param distances
 	 *            The distances of all street segments
 	 * @param shapePointIndexes
 	 *            All indexes of "real" decision points" stored in
-	 *            <code>decisionPoints</code>
+	 *            <code>shapePoints</code>
+	 */
+	public Route(int[] maneuvers, int[] linkIndexes, double[] shapePoints,
+			double[] distances, int[] shapePointIndexes) {
+		createRoute(maneuvers, linkIndexes, shapePoints, distances,
+				shapePointIndexes);
+	}
+
+	/**
+	 * Store the shape points and create the route segments
+	 * 
+	 * @param maneuvers
+	 *            The maneuver types
+	 * @param linkIndexes
+	 *            All indexes of required entries in the
+	 *            <code>GuidanceLinkCollection</code>
+	 * @param shapePoints
+	 *            Latitudes and longitudes of all shape points in alternating
+	 *            order
+	 * @param distances
+	 *            The distances of all street segments
+	 * @param shapePointIndexes
+	 *            All indexes of "real" decision points" stored in
+	 *            <code>shapePoints</code>
+	 */
+	private void createRoute(int[] maneuvers, int[] linkIndexes,
+			double[] shapePoints, double[] distances, int[] shapePointIndexes) {
+		// Store the shape points in microdegrees
+		int numberOfShapePoints = shapePoints.length / 2;
+		this.latitudesE6 = new int[numberOfShapePoints];
+		this.longitudesE6 = new int[numberOfShapePoints];
+		for (int i = 0; i < numberOfShapePoints; i++) {
+			this.latitudesE6[i] = (int) Math.round(shapePoints[2 * i] * 1E6);
+			this.longitudesE6[i] = (int) Math
+					.round(shapePoints[2 * i + 1] * 1E6);
+		}
+
+		// Sum up the offsets of the shape points
+		this.shapePointOffsets = new double[numberOfShapePoints];
+		for (int i = 1; i < numberOfShapePoints; i++) {
+			this.shapePointOffsets[i] = this.shapePointOffsets[i - 1]
+					+ GeoDistance.haversine(getLatitude(i - 1),
+							getLongitude(i - 1), getLatitude(i),
+							getLongitude(i));
+		}
+
+		// Sum up the offsets of the links and convert them from kilometers
+		// into meters
+		this.linkOffsets = new double[distances.length + 1];
+		for (int i = 0; i < distances.length; i++) {
+			this.linkOffsets[i + 1] = this.linkOffsets[i] + distances[i]
+					* 1000;
+		}
+
+		// Create the route segments
+		createRouteSegments(maneuvers, linkIndexes, shapePointIndexes);
+
+		// Set current route segment to first segment
+		this.currentSegment = 0;
+
+		// Import has been successful
+		this.importSuccessful = true;
+	}
+
+	/**
+	 * Create the route segments out of the complete route information
+	 * 
+	 * @param maneuvers
+	 *            The maneuver types
+	 * @param linkIndexes
+	 *            All indexes of required entries in the
+	 *            <code>GuidanceLinkCollection</code>
+	 * @param shapePointIndexes
+	 *            All indexes of "real" decision points" stored in the shape
+	 *            points
 	 */
 	private void createRouteSegments(int[] maneuvers, int[] linkIndexes,
-			GeoPoint[] decisionPoints, double[] distances,
 			int[] shapePointIndexes) {
-		this.segments = new ArrayList<RouteSegment>();
+		int numberOfSegments = maneuvers.length;
+		this.segmentStartIndexes = new int[numberOfSegments];
+		this.segmentEndIndexes = new int[numberOfSegments];
+		this.segmentManeuverTypes = new int[numberOfSegments];
+		this.segmentEndLinks = linkIndexes;
+		this.segmentDistances = new int[numberOfSegments];
 
-		// Create the first route segment (starting position = null)
-		GeoPoint firstDecisionPoint = decisionPoints[shapePointIndexes[linkIndexes[0]]];
-		double firstDistance = 0;
-		for (int i = 0; i < linkIndexes[0]; i++) {
-			firstDistance += distances[i];
-		}
-		RouteSegment firstSegment = new RouteSegment(null, firstDecisionPoint,
-				maneuvers[0], (int) firstDistance);
-		this.segments.add(firstSegment);
-
-		// Create the rest of the route segments analog to the first segment
-		for (int i = 1; i < maneuvers.length; i++) {
-			GeoPoint lastDecisionPoint = decisionPoints[shapePointIndexes[linkIndexes[i - 1]]];
-			GeoPoint nextDecisionPoint = decisionPoints[shapePointIndexes[linkIndexes[i]]];
-
-			double nextDistance = 0;
-			for (int j = (i == 0) ? 0 : linkIndexes[i - 1]; j < linkIndexes[i]; j++) {
-				nextDistance += distances[j];
-			}
-			// Round the distance depending on its value and convert it from
-			// kilometers into meters
-			if (nextDistance >= 1) {
-				nextDistance = Math.round(nextDistance * 10) * 100;
+		// The first route segment starts at index 0, all other route segments
+		// start at the final position of the previous one
+		for (int i = 0; i < numberOfSegments; i++) {
+			this.segmentStartIndexes[i] = (i == 0) ? 0
+					: shapePointIndexes[linkIndexes[i - 1]];
+			this.segmentEndIndexes[i] = shapePointIndexes[linkIndexes[i]];
+			this.segmentManeuverTypes[i] = maneuvers[i];
+
+			// Round the distance depending on its value
+			double distance = getSegmentLength(i);
+			if (distance >= 1000) {
+				distance = Math.round(distance / 100) * 100;
 			} else {
-				nextDistance = Math.round(nextDistance * 100) * 10;
+				distance = Math.round(distance / 10) * 10;
 			}
+			this.segmentDistances[i] = (int) distance;
+		}
+	}
+
+	/**
+	 * Write the route in a compact binary form. It can be restored with
+	 * <code>readFrom()</code>.
+	 * 
+	 * @param out
+	 *            The output to write to
+	 * @throws IOException
+	 *             If the route could not be written
+	 */
+	public void writeTo(DataOutput out) throws IOException {
+		out.writeInt(BINARY_VERSION);
+
+		// --- Write the shape points ---
+		out.writeInt(this.latitudesE6.length);
+		for (int i = 0; i < this.latitudesE6.length; i++) {
+			out.writeInt(this.latitudesE6[i]);
+			out.writeInt(this.longitudesE6[i]);
+			out.writeDouble(this.shapePointOffsets[i]);
+		}
+
+		// --- Write the links ---
+		out.writeInt(this.linkOffsets.length);
+		for (int i = 0; i < this.linkOffsets.length; i++) {
+			out.writeDouble(this.linkOffsets[i]);
+		}
+
+		// --- Write the route segments ---
+		out.writeInt(this.segmentManeuverTypes.length);
+		for (int i = 0; i < this.segmentManeuverTypes.length; i++) {
+			out.writeInt(this.segmentStartIndexes[i]);
+			out.writeInt(this.segmentEndIndexes[i]);
+			out.writeInt(this.segmentManeuverTypes[i]);
+			out.writeInt(this.segmentEndLinks[i]);
+			out.writeInt(this.segmentDistances[i]);
+		}
+	}
+
+	/**
+	 * Read a route that has been written by <code>writeTo()</code>
+	 * 
+	 * @param in
+	 *            The input to read from
+	 * @return The route
+	 * @throws IOException
+	 *             If the route could not be read or has been written in
+	 *             another version of the binary format
+	 */
+	public static Route readFrom(DataInput in) throws IOException {
+		int version = in.readInt();
+		if (version != BINARY_VERSION) {
+			throw new IOException("Unknown version of the route: " + version);
+		}
+		Route route = new Route();
+
+		// --- Read the shape points ---
+		int numberOfShapePoints = in.readInt();
+		route.latitudesE6 = new int[numberOfShapePoints];
+		route.longitudesE6 = new int[numberOfShapePoints];
+		route.shapePointOffsets = new double[numberOfShapePoints];
+		for (int i = 0; i < numberOfShapePoints; i++) {
+			route.latitudesE6[i] = in.readInt();
+			route.longitudesE6[i] = in.readInt();
+			route.shapePointOffsets[i] = in.readDouble();
+		}
+
+		// --- Read the links ---
+		route.linkOffsets = new double[in.readInt()];
+		for (int i = 0; i < route.linkOffsets.length; i++) {
+			route.linkOffsets[i] = in.readDouble();
+		}
 
-			// Create the route segment
-			RouteSegment nextSegment = new RouteSegment(lastDecisionPoint,
-					nextDecisionPoint, maneuvers[i], (int) nextDistance);
-			this.segments.add(nextSegment);
+		// --- Read the route segments ---
+		int numberOfSegments = in.readInt();
+		route.segmentStartIndexes = new int[numberOfSegments];
+		route.segmentEndIndexes = new int[numberOfSegments];
+		route.segmentManeuverTypes = new int[numberOfSegments];
+		route.segmentEndLinks = new int[numberOfSegments];
+		route.segmentDistances = new int[numberOfSegments];
+		for (int i = 0; i < numberOfSegments; i++) {
+			route.segmentStartIndexes[i] = in.readInt();
+			route.segmentEndIndexes[i] = in.readInt();
+			route.segmentManeuverTypes[i] = in.readInt();
+			route.segmentEndLinks[i] = in.readInt();
+			route.segmentDistances[i] = in.readInt();
 		}
+
+		route.currentSegment = 0;
+		route.importSuccessful = true;
+		return route;
 	}
 
 	/**
@@ -192,8 +323,8 @@ public class Route {
 	 *         Null when the end of route segments has been reached.
 	 */
 	public RouteSegment getNextSegment() {
-		if (currentSegment < this.segments.size()) {
-			RouteSegment nextSegment = this.segments.get(this.currentSegment);
+		if (currentSegment < getNumberOfSegments()) {
+			RouteSegment nextSegment = getSegment(this.currentSegment);
 			this.currentSegment++;
 			return nextSegment;
 		} else {
@@ -201,21 +332,210 @@ public class Route {
 		}
 	}
 
+	/**
+	 * Get a route segment
+	 * 
+	 * @param index
+	 *            Index of the route segment
+	 * @return The route segment
+	 */
+	public RouteSegment getSegment(int index) {
+		return new RouteSegment(this, index);
+	}
+
 	/**
 	 * Get the number of route segments
 	 * 
 	 * @return The number of route segments
 	 */
 	public int getNumberOfSegments() {
-		return this.segments.size();
+		return this.segmentManeuverTypes.length;
+	}
+
+	/**
+	 * @param index
+	 *            Index of the route segment
+	 * @return The index of the starting shape point of the route segment
+	 */
+	public int getSegmentStartIndex(int index) {
+		return this.segmentStartIndexes[index];
 	}
 
 	/**
-	 * Get all shape points that create the route
+	 * @param index
+	 *            Index of the route segment
+	 * @return The index of the final shape point of the route segment
+	 */
+	public int getSegmentEndIndex(int index) {
+		return this.segmentEndIndexes[index];
+	}
+
+	/**
+	 * @param index
+	 *            Index of the route segment
+	 * @return The maneuver type at the final position of the route segment
+	 */
+	public int getSegmentManeuverType(int index) {
+		return this.segmentManeuverTypes[index];
+	}
+
+	/**
+	 * @param index
+	 *            Index of the route segment
+	 * @return The distance of the route segment in meters rounded to 10 m
+	 *         (100 m from 1 km on)
+	 */
+	public int getSegmentDistance(int index) {
+		return this.segmentDistances[index];
+	}
+
+	/**
+	 * @param index
+	 *            Index of the route segment
+	 * @return The exact length of the route segment in meters
+	 */
+	public double getSegmentLength(int index) {
+		int startLink = (index == 0) ? 0 : this.segmentEndLinks[index - 1];
+		return this.linkOffsets[this.segmentEndLinks[index]]
+				- this.linkOffsets[startLink];
+	}
+
+	/**
+	 * @return The length of the route in meters
+	 */
+	public double getLength() {
+		return this.linkOffsets[this.linkOffsets.length - 1];
+	}
+
+	/**
+	 * @param link
+	 *            Index of the link in the <code>GuidanceLinkCollection</code>
+	 *            (the number of links is allowed to get the end of the route)
+	 * @return The along-route offset of the beginning of the link in meters
+	 */
+	public double getLinkOffset(int link) {
+		return this.linkOffsets[link];
+	}
+
+	/**
+	 * @param index
+	 *            Index of the shape point
+	 * @return The along-route offset of the shape point in meters measured
+	 *         along the shape of the route
+	 */
+	public double getOffset(int index) {
+		return this.shapePointOffsets[index];
+	}
+
+	/**
+	 * Get the along-route offset of a location between two consecutive shape
+	 * points
+	 * 
+	 * @param index
+	 *            Index of the shape point before the location
+	 * @param fraction
+	 *            Position of the location between the shape point (0) and the
+	 *            next one (1)
+	 * @return The along-route offset of the location in meters measured along
+	 *         the shape of the route
+	 */
+	public double getOffset(int index, double fraction) {
+		if (index + 1 >= this.shapePointOffsets.length) {
+			return this.shapePointOffsets[index];
+		}
+		double length = this.shapePointOffsets[index + 1]
+				- this.shapePointOffsets[index];
+		return this.shapePointOffsets[index] + fraction * length;
+	}
+
+	/**
+	 * @param from
+	 *            Index of the first shape point
+	 * @param to
+	 *            Index of the second shape point
+	 * @return The distance along the route between the shape points in meters
+	 */
+	public double getDistanceBetween(int from, int to) {
+		return this.shapePointOffsets[to] - this.shapePointOffsets[from];
+	}
+
+	/**
+	 * @param index
+	 *            Index of the shape point
+	 * @return The remaining distance along the route from the shape point to
+	 *         the destination in meters
+	 */
+	public double getRemainingDistance(int index) {
+		return this.shapePointOffsets[this.shapePointOffsets.length - 1]
+				- this.shapePointOffsets[index];
+	}
+
+	/**
+	 * Get the number of shape points that create the route
+	 * 
+	 * @return The number of shape points
+	 */
+	public int getNumberOfShapePoints() {
+		return this.latitudesE6.length;
+	}
+
+	/**
+	 * @param index
+	 *            Index of the shape point
+	 * @return The latitude of the shape point in degrees
+	 */
+	public double getLatitude(int index) {
+		return this.latitudesE6[index] / 1E6;
+	}
+
+	/**
+	 * @param index
+	 *            Index of the shape point
+	 * @return The longitude of the shape point in degrees
+	 */
+	public double getLongitude(int index) {
+		return this.longitudesE6[index] / 1E6;
+	}
+
+	/**
+	 * Get a shape point of the route. A new <code>GeoPoint</code> is created
+	 * with each call.
+	 * 
+	 * @param index
+	 *            Index of the shape point
+	 * @return The shape point
+	 */
+	public GeoPoint getShapePoint(int index) {
+		return new GeoPoint(this.latitudesE6[index], this.longitudesE6[index]);
+	}
+
+	/**
+	 * Get all shape points that create the route. The returned list is a
+	 * read-only view of the route (e.g. for a <code>LineOverlay</code>) that
+	 * creates the <code>GeoPoint</code> objects on request.
 	 * 
 	 * @return All shape points
 	 */
-	public GeoPoint[] getShapePoints() {
-		return this.shapePoints;
+	public List<GeoPoint> getShapePoints() {
+		return new ShapePointList();
+	}
+
+	/**
+	 * Read-only list view of the shape points of the route
+	 * 
+	 * @author Marius Runde
+	 */
+	private class ShapePointList extends AbstractList<GeoPoint> implements
+			RandomAccess {
+
+		@Override
+		public GeoPoint get(int location) {
+			return getShapePoint(location);
+		}
+
+		@Override
+		public int size() {
+			return getNumberOfShapePoints();
+		}
 	}
 }
@@ -0,0 +1,101 @@
+package de.mrunde.bachelorthesis.basics;
+
+import java.util.List;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+import com.mapquest.android.maps.GeoPoint;
+import com.mapquest.android.maps.LineOverlay;
+import com.mapquest.android.maps.MapView;
+
+/**
+ * The RouteOverlay draws the route as a line and informs a listener when the
+ * route has been drawn on the map for the first time. So the navigation can
+ * wait for the route to be displayed without polling the map.
+ * 
+ * @author Marius Runde
+ */
+public class RouteOverlay extends LineOverlay {
+
+	/**
+	 * Listener that is informed when the route has been drawn
+	 */
+	public interface OnRouteDrawnListener {
+
+		/**
+		 * Called on the UI thread after the route has been drawn on the map
+		 * for the first time since its shape points have been set
+		 * 
+		 * @param overlay
+		 *            The overlay of the route
+		 */
+		public void onRouteDrawn(RouteOverlay overlay);
+	}
+
+	/**
+	 * The listener. <code>null</code> if none has been set.
+	 */
+	private OnRouteDrawnListener listener;
+
+	/**
+	 * <code>TRUE</code>: The current shape points have been drawn already
+	 */
+	private boolean drawn;
+
+	/**
+	 * Constructor of the RouteOverlay class
+	 * 
+	 * @param paint
+	 *            The style of the line
+	 */
+	public RouteOverlay(Paint paint) {
+		super(paint);
+	}
+
+	/**
+	 * @param listener
+	 *            The listener that is informed when the route has been drawn
+	 */
+	public void setOnRouteDrawnListener(OnRouteDrawnListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * @return <code>TRUE</code>: The current shape points have been drawn on
+	 *         the map<br/>
+	 *         <code>FALSE</code>: The route is not displayed yet
+	 */
+	public boolean isDrawn() {
+		return this.drawn;
+	}
+
+	/**
+	 * Set the shape points of the route. The listener is informed again when
+	 * they have been drawn.
+	 */
+	@Override
+	public void setData(List<GeoPoint> shapePoints) {
+		this.drawn = false;
+		super.setData(shapePoints);
+	}
+
+	@Override
+	public void draw(Canvas canvas, final MapView mapView, boolean shadow) {
+		super.draw(canvas, mapView, shadow);
+
+		if (!shadow && !this.drawn) {
+			this.drawn = true;
+			if (this.listener != null) {
+				// Inform the listener after the drawing has been finished
+				mapView.post(new Runnable() {
+
+					@Override
+					public void run() {
+						listener.onRouteDrawn(RouteOverlay.this);
+					}
+				});
+			}
+		}
+	}
+}
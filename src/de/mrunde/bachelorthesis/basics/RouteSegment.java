@@ -3,77 +3,81 @@ package de.mrunde.bachelorthesis.basics;
 import com.mapquest.android.maps.GeoPoint;
 
 /**
- * A route segment is the part of a route between two turn actions.
+ * A route segment is the part of a route between two turn actions. It is a
+ * view of the segment tables of its route.
  * 
  * @author Marius Runde
  */
 public class RouteSegment {
 
 	/**
-	 * Starting position
+	 * The route this segment belongs to
 	 */
-	private GeoPoint startPoint;
+	private Route route;
 
 	/**
-	 * Final position
+	 * Index of this segment in the segment tables of the route
 	 */
-	private GeoPoint endPoint;
+	private int index;
 
 	/**
-	 * Maneuver type at the final position
+	 * Constructor of the RouteSegment class
+	 * 
+	 * @param route
+	 *            The route this segment belongs to
+	 * @param index
+	 *            Index of this segment in the route
 	 */
-	private int maneuverType;
+	public RouteSegment(Route route, int index) {
+		this.route = route;
+		this.index = index;
+	}
 
 	/**
-	 * Distance between the starting and the final position
+	 * @return The starting position.<br/>
+	 *         Null for the first segment of the route.
 	 */
-	private int distance;
+	public GeoPoint getStartPoint() {
+		if (index == 0) {
+			return null;
+		}
+		return route.getShapePoint(getStartIndex());
+	}
 
 	/**
-	 * Constructor of the RouteSegment class
-	 * 
-	 * @param startPoint
-	 *            Starting position
-	 * @param endPoint
-	 *            Final position
-	 * @param maneuverType
-	 *            Maneuver type at the final position
-	 * @param distance
-	 *            Distance between the starting and the final position
+	 * @return The final position
 	 */
-	public RouteSegment(GeoPoint startPoint, GeoPoint endPoint,
-			int maneuverType, int distance) {
-		this.startPoint = startPoint;
-		this.endPoint = endPoint;
-		this.maneuverType = maneuverType;
-		this.distance = distance;
+	public GeoPoint getEndPoint() {
+		return route.getShapePoint(getEndIndex());
 	}
 
 	/**
-	 * @return The starting position
+	 * @return The index of the starting position in the shape points of the
+	 *         route
 	 */
-	public GeoPoint getStartPoint() {
-		return startPoint;
+	public int getStartIndex() {
+		return route.getSegmentStartIndex(index);
 	}
 
 	/**
-	 * @return The final position
+	 * @return The index of the final position in the shape points of the
+	 *         route
 	 */
-	public GeoPoint getEndPoint() {
-		return endPoint;
+	public int getEndIndex() {
+		return route.getSegmentEndIndex(index);
 	}
 
 	/**
 	 * @return The maneuver type
 	 */
 	public int getManeuverType() {
-		return maneuverType;
+		return route.getSegmentManeuverType(index);
 	}
 
 	/**
 	 * @return The distance between starting and final position
 	 */
 	public int getDistance() {
-		return distance;
+		return route.getSegmentDistance(index);
 	}
 }
@@ -0,0 +1,670 @@
+package de.mrunde.bachelorthesis.basics;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The SpatialIndex is a uniform grid over a set of geographic points (e.g.
+ * landmarks). Only the grid cells around a location are visited to answer a
+ * query. Therefore the time of a query depends on the number of points nearby
+ * and not on the total number of points.<br/>
+ * <br/>
+ * The edge length of a grid cell is the largest radius of visibility of all
+ * points (at least 50 m), so a visibility query visits at most 3x3 cells.
+ * "Nearby" therefore means within the largest radius: a single point with a
+ * large radius of visibility (e.g. 5 km) coarsens the grid of all points, and
+ * each visibility query then tests every point within about 5 km. The points
+ * with a large radius should be kept in a separate layer.<br/>
+ * <br/>
+ * The index is a view of a buffer written by the
+ * <code>SpatialIndexWriter</code> (e.g. a mapped file) and reads all values in
+ * place, so it is created in constant time and does not occupy the Java heap.
+ * The points are stored as records of a fixed size. Each record begins with the
+ * latitude and the longitude in microdegrees and the radius of visibility in
+ * meters (3 <code>int</code> values). The points are referenced by the index
+ * of their record.<br/>
+ * <br/>
+ * Layout of the grid table (big-endian):
+ * <ul>
+ * <li>Largest radius of visibility of all points in meters
+ * (<code>int</code>)</li>
+ * <li>Height and width of a grid cell in degrees (<code>double</code>
+ * values)</li>
+ * <li>Number of occupied grid cells (<code>int</code>)</li>
+ * <li>Keys of the occupied grid cells in ascending order (<code>long</code>
+ * values)</li>
+ * <li>Position of the first entry of each occupied grid cell in the entries
+ * (<code>int</code> values, the last element marks the end of the
+ * entries)</li>
+ * <li>Entries: indexes of the points sorted by their grid cells
+ * (<code>int</code> values)</li>
+ * </ul>
+ * 
+ * @author Marius Runde
+ */
+public class SpatialIndex {
+
+	/**
+	 * Size of the fixed part of the grid table in bytes
+	 */
+	static final int GRID_HEADER_SIZE = 4 + 8 + 8 + 4;
+
+	/**
+	 * Minimal cosine of a latitude used for the grid so that it does not
+	 * degenerate close to the poles
+	 */
+	static final double MIN_COSINE = 0.01;
+
+	// --- The positions of the values inside of a point ---
+	/**
+	 * Position of the latitude
+	 */
+	private static final int LATITUDE = 0;
+
+	/**
+	 * Position of the longitude
+	 */
+	private static final int LONGITUDE = 4;
+
+	/**
+	 * Position of the radius of visibility
+	 */
+	private static final int RADIUS = 8;
+
+	// --- End of positions ---
+
+	/**
+	 * The buffer containing the points and the grid table
+	 */
+	private final ByteBuffer buffer;
+
+	/**
+	 * Position of the first point
+	 */
+	private final int pointStart;
+
+	/**
+	 * Size of a point in bytes
+	 */
+	private final int pointSize;
+
+	/**
+	 * Number of points
+	 */
+	private final int size;
+
+	/**
+	 * Largest radius of visibility of all points in meters
+	 */
+	private final int maxRadius;
+
+	/**
+	 * Height of a grid cell in degrees latitude
+	 */
+	private final double cellHeight;
+
+	/**
+	 * Width of a grid cell in degrees longitude
+	 */
+	private final double cellWidth;
+
+	/**
+	 * Number of occupied grid cells
+	 */
+	private final int numberOfCells;
+
+	/**
+	 * Position of the keys of the occupied grid cells
+	 */
+	private final int cellKeysStart;
+
+	/**
+	 * Position of the first entry of each occupied grid cell
+	 */
+	private final int cellStartsStart;
+
+	/**
+	 * Position of the indexes of the points sorted by their grid cells
+	 */
+	private final int entriesStart;
+
+	/**
+	 * Constructor of the SpatialIndex class
+	 * 
+	 * @param buffer
+	 *            The buffer containing the points and the grid table
+	 * @param pointStart
+	 *            Position of the first point
+	 * @param pointSize
+	 *            Size of a point in bytes (at least 12)
+	 * @param size
+	 *            Number of points
+	 * @param gridStart
+	 *            Position of the grid table
+	 * @throws IllegalArgumentException
+	 *             If the points or the grid table are not inside of the
+	 *             buffer
+	 */
+	public SpatialIndex(ByteBuffer buffer, int pointStart, int pointSize,
+			int size, int gridStart) {
+		this.buffer = buffer;
+		this.pointStart = pointStart;
+		this.pointSize = pointSize;
+		this.size = size;
+		if (pointStart < 0 || size < 0 || pointSize < RADIUS + 4
+				|| (long) pointStart + (long) size * pointSize > buffer.capacity()
+				|| gridStart < 0
+				|| (long) gridStart + GRID_HEADER_SIZE > buffer.capacity()) {
+			throw new IllegalArgumentException(
+					"The points are not inside of the buffer");
+		}
+
+		this.maxRadius = buffer.getInt(gridStart);
+		this.cellHeight = buffer.getDouble(gridStart + 4);
+		this.cellWidth = buffer.getDouble(gridStart + 12);
+		this.numberOfCells = buffer.getInt(gridStart + 20);
+		this.cellKeysStart = gridStart + GRID_HEADER_SIZE;
+		this.cellStartsStart = this.cellKeysStart + 8 * this.numberOfCells;
+		this.entriesStart = this.cellStartsStart + 4 * (this.numberOfCells + 1);
+		if (this.numberOfCells < 0 || this.numberOfCells > size
+				|| getGridEnd() > buffer.capacity()
+				|| getCellStart(this.numberOfCells) != size) {
+			throw new IllegalArgumentException(
+					"The grid table is not inside of the buffer");
+		}
+	}
+
+	/**
+	 * @return The position behind the grid table in the buffer
+	 */
+	public int getGridEnd() {
+		return this.entriesStart + 4 * this.size;
+	}
+
+	/**
+	 * @return The number of indexed points
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * @param index
+	 *            Index of the point
+	 * @return The latitude of the point
+	 */
+	public double getLatitude(int index) {
+		return getInt(index, LATITUDE) / 1E6;
+	}
+
+	/**
+	 * @param index
+	 *            Index of the point
+	 * @return The longitude of the point
+	 */
+	public double getLongitude(int index) {
+		return getInt(index, LONGITUDE) / 1E6;
+	}
+
+	/**
+	 * @return The largest radius of visibility of all points in meters
+	 */
+	public int getMaxRadius() {
+		return this.maxRadius;
+	}
+
+	/**
+	 * Search for all points within the given radius around a location. The
+	 * indexes are written into <code>result</code>. If <code>result</code> is
+	 * too small, the remaining indexes are counted but not stored.
+	 * 
+	 * @param lat
+	 *            Latitude of the location
+	 * @param lng
+	 *            Longitude of the location
+	 * @param radius
+	 *            Search radius in meters
+	 * @param result
+	 *            Array to store the indexes of the found points
+	 * @return The number of found points
+	 */
+	public int queryRadius(double lat, double lng, double radius,
+			int[] result) {
+		return query(lat, lng, GeoDistance.cosine(lat), radius, false, result);
+	}
+
+	/**
+	 * Search for all points whose radius of visibility contains the given
+	 * location. The indexes are written into <code>result</code>. If
+	 * <code>result</code> is too small, the remaining indexes are counted but
+	 * not stored.
+	 * 
+	 * @param lat
+	 *            Latitude of the location
+	 * @param lng
+	 *            Longitude of the location
+	 * @param result
+	 *            Array to store the indexes of the found points
+	 * @return The number of found points
+	 */
+	public int queryVisible(double lat, double lng, int[] result) {
+		return queryVisible(lat, lng, GeoDistance.cosine(lat), result);
+	}
+
+	/**
+	 * Search for all points whose radius of visibility contains the given
+	 * location with the precalculated cosine of its latitude. The indexes are
+	 * written into <code>result</code>. If <code>result</code> is too small,
+	 * the remaining indexes are counted but not stored.<br/>
+	 * <br/>
+	 * The grid cells intersecting the bounding box of the largest radius of
+	 * visibility around the location are visited and the points inside of
+	 * them are tested.
+	 * 
+	 * @param lat
+	 *            Latitude of the location
+	 * @param lng
+	 *            Longitude of the location
+	 * @param cos
+	 *            Cosine of the latitude of the location
+	 * @param result
+	 *            Array to store the indexes of the found points
+	 * @return The number of found points
+	 */
+	public int queryVisible(double lat, double lng, double cos, int[] result) {
+		return query(lat, lng, cos, this.maxRadius, true, result);
+	}
+
+	/**
+	 * Search for the <code>k</code> nearest points within the maximal distance
+	 * around a location.<br/>
+	 * <br/>
+	 * The grid cells are visited ring by ring outward from the grid cell of
+	 * the location. The search stops as soon as the <code>k</code>-th nearest
+	 * point found so far is closer than any point outside of the visited
+	 * rings or the rings are farther away than the maximal distance. If the
+	 * next ring would have more cells than the grid has occupied cells, the
+	 * remaining occupied cells are visited instead. Therefore the search also
+	 * ends for an infinite maximal distance and a location far away from all
+	 * points.
+	 * 
+	 * @param lat
+	 *            Latitude of the location
+	 * @param lng
+	 *            Longitude of the location
+	 * @param k
+	 *            Maximal number of points to be found
+	 * @param maxDistance
+	 *            Maximal distance in meters
+	 * @return Indexes of the found points ordered by their distance to the
+	 *         location (nearest first)
+	 */
+	public int[] queryNearest(double lat, double lng, int k,
+			double maxDistance) {
+		if (k <= 0 || this.numberOfCells == 0) {
+			return new int[0];
+		}
+		double cos = GeoDistance.cosine(lat);
+		int[] nearest = new int[Math.min(k, this.size)];
+		double[] distances = new double[nearest.length];
+		int found = 0;
+
+		int row = cell(lat, this.cellHeight);
+		int column = cell(lng, this.cellWidth);
+		for (int ring = 0;; ring++) {
+			if (ring > 0) {
+				// Smallest distance of a point outside of the visited rings
+				double bound = getRingDistance(lat, lng, row, column, ring - 1);
+				if (bound > maxDistance || (found == nearest.length
+						&& distances[found - 1] <= bound)) {
+					break;
+				}
+			}
+
+			long side = 2L * ring + 1;
+			if (ring > 0 && side * side > this.numberOfCells) {
+				// Visit the remaining occupied cells
+				for (int cell = 0; cell < this.numberOfCells; cell++) {
+					long key = getCellKey(cell);
+					if (Math.abs((long) (int) (key >> 32) - row) >= ring
+							|| Math.abs((long) (int) key - column) >= ring) {
+						found = collectNearest(cell, lat, lng, cos,
+								maxDistance, nearest, distances, found);
+					}
+				}
+				break;
+			}
+
+			// Visit the cells of the ring
+			for (int c = column - ring; c <= column + ring; c++) {
+				found = collectNearest(findCell(cellKey(row - ring, c)), lat,
+						lng, cos, maxDistance, nearest, distances, found);
+				if (ring > 0) {
+					found = collectNearest(findCell(cellKey(row + ring, c)),
+							lat, lng, cos, maxDistance, nearest, distances,
+							found);
+				}
+			}
+			for (int r = row - ring + 1; r < row + ring; r++) {
+				found = collectNearest(findCell(cellKey(r, column - ring)), lat,
+						lng, cos, maxDistance, nearest, distances, found);
+				found = collectNearest(findCell(cellKey(r, column + ring)), lat,
+						lng, cos, maxDistance, nearest, distances, found);
+			}
+		}
+		return Arrays.copyOf(nearest, found);
+	}
+
+	/**
+	 * Get the distance between a point and a location
+	 * 
+	 * @param index
+	 *            Index of the point
+	 * @param lat
+	 *            Latitude of the location
+	 * @param lng
+	 *            Longitude of the location
+	 * @return The distance in meters
+	 */
+	public double getDistance(int index, double lat, double lng) {
+		return getDistance(index, lat, lng, GeoDistance.cosine(lat));
+	}
+
+	/**
+	 * Get the distance between a point and a location with the precalculated
+	 * cosine of its latitude. The equirectangular approximation is used (see
+	 * <code>GeoDistance</code> for its error bound).
+	 * 
+	 * @param index
+	 *            Index of the point
+	 * @param lat
+	 *            Latitude of the location
+	 * @param lng
+	 *            Longitude of the location
+	 * @param cos
+	 *            Cosine of the latitude of the location
+	 * @return The distance in meters
+	 */
+	public double getDistance(int index, double lat, double lng, double cos) {
+		double pointLat = getLatitude(index);
+		return GeoDistance.equirectangular(pointLat, getLongitude(index),
+				GeoDistance.cosine(pointLat), lat, lng, cos);
+	}
+
+	/**
+	 * Visit all grid cells that intersect the bounding box of the search
+	 * circle and test the points inside of them. If the bounding box has more
+	 * cells than the grid has occupied cells, the occupied cells are visited
+	 * instead.
+	 * 
+	 * @param lat
+	 *            Latitude of the location
+	 * @param lng
+	 *            Longitude of the location
+	 * @param cos
+	 *            Cosine of the latitude of the location
+	 * @param radius
+	 *            Search radius in meters
+	 * @param visible
+	 *            <code>TRUE</code>: Use the radius of visibility of each point
+	 *            instead of <code>radius</code> for the distance test
+	 * @param result
+	 *            Array to store the indexes of the found points
+	 * @return The number of found points
+	 */
+	private int query(double lat, double lng, double cos, double radius,
+			boolean visible, int[] result) {
+		int count = 0;
+		if (this.numberOfCells == 0) {
+			return count;
+		}
+
+		double deltaLat = radius / GeoDistance.METERS_PER_DEGREE;
+		double deltaLng = deltaLat / Math.max(cos, MIN_COSINE);
+		int minRow = cell(lat - deltaLat, this.cellHeight);
+		int maxRow = cell(lat + deltaLat, this.cellHeight);
+		int minColumn = cell(lng - deltaLng, this.cellWidth);
+		int maxColumn = cell(lng + deltaLng, this.cellWidth);
+
+		double boxCells = ((double) maxRow - minRow + 1)
+				* ((double) maxColumn - minColumn + 1);
+		if (boxCells > this.numberOfCells) {
+			for (int cell = 0; cell < this.numberOfCells; cell++) {
+				long key = getCellKey(cell);
+				int row = (int) (key >> 32);
+				int column = (int) key;
+				if (row >= minRow && row <= maxRow && column >= minColumn
+						&& column <= maxColumn) {
+					count = collectInside(cell, lat, lng, cos, radius,
+							visible, result, count);
+				}
+			}
+		} else {
+			for (int row = minRow; row <= maxRow; row++) {
+				for (int column = minColumn; column <= maxColumn; column++) {
+					count = collectInside(findCell(cellKey(row, column)), lat,
+							lng, cos, radius, visible, result, count);
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Test the points of a grid cell for a radius or visibility query
+	 * 
+	 * @param cell
+	 *            Index of the grid cell in the grid table. Nothing is done if
+	 *            it is negative.
+	 * @param lat
+	 *            Latitude of the location
+	 * @param lng
+	 *            Longitude of the location
+	 * @param cos
+	 *            Cosine of the latitude of the location
+	 * @param radius
+	 *            Search radius in meters
+	 * @param visible
+	 *            <code>TRUE</code>: Use the radius of visibility of each point
+	 *            instead of <code>radius</code> for the distance test
+	 * @param result
+	 *            Array to store the indexes of the found points
+	 * @param count
+	 *            Number of points found so far
+	 * @return The number of points found including the points of the cell
+	 */
+	private int collectInside(int cell, double lat, double lng, double cos,
+			double radius, boolean visible, int[] result, int count) {
+		if (cell < 0) {
+			return count;
+		}
+		int end = getCellStart(cell + 1);
+		for (int i = getCellStart(cell); i < end; i++) {
+			int index = getEntry(i);
+			double maxDistance = visible ? getInt(index, RADIUS) : radius;
+			if (getDistance(index, lat, lng, cos) <= maxDistance) {
+				if (count < result.length) {
+					result[count] = index;
+				}
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Insert the points of a grid cell within the maximal distance into the
+	 * nearest points found so far
+	 * 
+	 * @param cell
+	 *            Index of the grid cell in the grid table. Nothing is done if
+	 *            it is negative.
+	 * @param lat
+	 *            Latitude of the location
+	 * @param lng
+	 *            Longitude of the location
+	 * @param cos
+	 *            Cosine of the latitude of the location
+	 * @param maxDistance
+	 *            Maximal distance in meters
+	 * @param nearest
+	 *            Indexes of the nearest points ordered by their distance
+	 * @param distances
+	 *            Distances of the nearest points
+	 * @param found
+	 *            Number of nearest points found so far
+	 * @return The number of nearest points found including the points of the
+	 *         cell
+	 */
+	private int collectNearest(int cell, double lat, double lng, double cos,
+			double maxDistance, int[] nearest, double[] distances, int found) {
+		if (cell < 0) {
+			return found;
+		}
+		int end = getCellStart(cell + 1);
+		for (int i = getCellStart(cell); i < end; i++) {
+			int index = getEntry(i);
+			double distance = getDistance(index, lat, lng, cos);
+			if (distance > maxDistance || (found == nearest.length
+					&& distance >= distances[found - 1])) {
+				continue;
+			}
+
+			// Insertion sort, the farthest point drops out if all are found
+			int j = found < nearest.length ? found++ : found - 1;
+			while (j > 0 && distances[j - 1] > distance) {
+				nearest[j] = nearest[j - 1];
+				distances[j] = distances[j - 1];
+				j--;
+			}
+			nearest[j] = index;
+			distances[j] = distance;
+		}
+		return found;
+	}
+
+	/**
+	 * Calculate the smallest distance between a location and a point outside
+	 * of the square of rings around the grid cell of the location
+	 * 
+	 * @param lat
+	 *            Latitude of the location
+	 * @param lng
+	 *            Longitude of the location
+	 * @param row
+	 *            Row of the grid cell of the location
+	 * @param column
+	 *            Column of the grid cell of the location
+	 * @param ring
+	 *            The outermost ring of the square (0: only the grid cell of
+	 *            the location)
+	 * @return The distance in meters
+	 */
+	private double getRingDistance(double lat, double lng, int row,
+			int column, int ring) {
+		double deltaLat = Math.min(lat - (double) (row - ring)
+				* this.cellHeight, (double) (row + ring + 1) * this.cellHeight
+				- lat);
+		double deltaLng = Math.min(lng - (double) (column - ring)
+				* this.cellWidth, (double) (column + ring + 1)
+				* this.cellWidth - lng);
+		// A point in a column outside of the square is either at least
+		// deltaLat away or its latitude is less than deltaLat away from the
+		// location, which bounds the cosine of its latitude
+		double cos = GeoDistance.cosine(Math.min(Math.abs(lat) + deltaLat, 90));
+		return Math.max(0, GeoDistance.METERS_PER_DEGREE
+				* Math.min(deltaLat, deltaLng * cos));
+	}
+
+	/**
+	 * Search for an occupied grid cell
+	 * 
+	 * @param key
+	 *            Key of the grid cell
+	 * @return Index of the grid cell in the grid table. -1 if it is not
+	 *         occupied.
+	 */
+	private int findCell(long key) {
+		int low = 0;
+		int high = this.numberOfCells - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			long middleKey = getCellKey(middle);
+			if (middleKey < key) {
+				low = middle + 1;
+			} else if (middleKey > key) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param cell
+	 *            Index of the grid cell in the grid table
+	 * @return The key of the grid cell
+	 */
+	private long getCellKey(int cell) {
+		return this.buffer.getLong(this.cellKeysStart + 8 * cell);
+	}
+
+	/**
+	 * @param cell
+	 *            Index of the grid cell in the grid table
+	 * @return Position of the first entry of the grid cell
+	 */
+	private int getCellStart(int cell) {
+		return this.buffer.getInt(this.cellStartsStart + 4 * cell);
+	}
+
+	/**
+	 * @param i
+	 *            Position in the entries
+	 * @return Index of the point
+	 */
+	private int getEntry(int i) {
+		return this.buffer.getInt(this.entriesStart + 4 * i);
+	}
+
+	/**
+	 * Read a value of a point
+	 * 
+	 * @param index
+	 *            Index of the point
+	 * @param value
+	 *            Position of the value inside of the point
+	 * @return The value
+	 */
+	private int getInt(int index, int value) {
+		if (index < 0 || index >= this.size) {
+			throw new IndexOutOfBoundsException("Point " + index
+					+ " does not exist");
+		}
+		return this.buffer.getInt(this.pointStart + index * this.pointSize
+				+ value);
+	}
+
+	/**
+	 * @param value
+	 *            Latitude or longitude
+	 * @param cellSize
+	 *            Height or width of a grid cell in degrees
+	 * @return The row or column of the grid cell
+	 */
+	static int cell(double value, double cellSize) {
+		return (int) Math.floor(value / cellSize);
+	}
+
+	/**
+	 * @param row
+	 *            Row of the grid cell
+	 * @param column
+	 *            Column of the grid cell
+	 * @return The key of the grid cell
+	 */
+	static long cellKey(int row, int column) {
+		return ((long) row << 32) | (column & 0xffffffffL);
+	}
+}
@@ -0,0 +1,174 @@
+package de.mrunde.bachelorthesis.basics;
+
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * The SpatialIndexWriter sorts a set of geographic points by the cells of a
+ * uniform grid and writes the grid table read by the <code>SpatialIndex</code>.
+ * The points keep their order, the grid table refers to them by their
+ * indexes.
+ * 
+ * @author Marius Runde
+ */
+public class SpatialIndexWriter {
+
+	/**
+	 * Minimal edge length of a grid cell in meters
+	 */
+	private static final int MIN_CELL_SIZE = 50;
+
+	/**
+	 * Largest radius of visibility of all points in meters
+	 */
+	private final int maxRadius;
+
+	/**
+	 * Height of a grid cell in degrees latitude
+	 */
+	private final double cellHeight;
+
+	/**
+	 * Width of a grid cell in degrees longitude
+	 */
+	private final double cellWidth;
+
+	/**
+	 * Key of the grid cell of each point
+	 */
+	private final long[] keys;
+
+	/**
+	 * Indexes of the points sorted by their grid cells
+	 */
+	private final int[] cellOrder;
+
+	/**
+	 * Number of occupied grid cells
+	 */
+	private final int numberOfCells;
+
+	/**
+	 * Constructor of the SpatialIndexWriter class. The coordinates have to be
+	 * given as they are read from the stored points (i.e. rounded to
+	 * microdegrees), so the grid cells of the points are equal.
+	 * 
+	 * @param latitudes
+	 *            Latitudes of the points
+	 * @param longitudes
+	 *            Longitudes of the points
+	 * @param radii
+	 *            Radius of visibility of each point in meters
+	 */
+	public SpatialIndexWriter(double[] latitudes, double[] longitudes,
+			int[] radii) {
+		// The cell size is the largest radius so that a visibility query does
+		// never have to visit more than 3x3 cells. A single large radius
+		// therefore coarsens the whole grid (see SpatialIndex).
+		int max = 0;
+		double meanLatitude = 0;
+		for (int i = 0; i < radii.length; i++) {
+			max = Math.max(max, radii[i]);
+			meanLatitude += latitudes[i] / radii.length;
+		}
+		this.maxRadius = max;
+		double cellSize = Math.max(max, MIN_CELL_SIZE);
+		this.cellHeight = cellSize / GeoDistance.METERS_PER_DEGREE;
+		this.cellWidth = this.cellHeight
+				/ Math.max(GeoDistance.cosine(meanLatitude),
+						SpatialIndex.MIN_COSINE);
+
+		this.keys = new long[latitudes.length];
+		for (int i = 0; i < this.keys.length; i++) {
+			this.keys[i] = SpatialIndex.cellKey(
+					SpatialIndex.cell(latitudes[i], this.cellHeight),
+					SpatialIndex.cell(longitudes[i], this.cellWidth));
+		}
+		this.cellOrder = sort(this.keys);
+
+		int cells = 0;
+		for (int i = 0; i < this.cellOrder.length; i++) {
+			if (isFirstOfCell(i)) {
+				cells++;
+			}
+		}
+		this.numberOfCells = cells;
+	}
+
+	/**
+	 * Write the grid table
+	 * 
+	 * @param out
+	 *            The output to write to
+	 * @throws IOException
+	 *             If the grid table could not be written
+	 */
+	public void writeTo(DataOutput out) throws IOException {
+		out.writeInt(this.maxRadius);
+		out.writeDouble(this.cellHeight);
+		out.writeDouble(this.cellWidth);
+		out.writeInt(this.numberOfCells);
+		for (int i = 0; i < this.cellOrder.length; i++) {
+			if (isFirstOfCell(i)) {
+				out.writeLong(this.keys[this.cellOrder[i]]);
+			}
+		}
+		for (int i = 0; i < this.cellOrder.length; i++) {
+			if (isFirstOfCell(i)) {
+				out.writeInt(i);
+			}
+		}
+		out.writeInt(this.cellOrder.length);
+		for (int i = 0; i < this.cellOrder.length; i++) {
+			out.writeInt(this.cellOrder[i]);
+		}
+	}
+
+	/**
+	 * @param i
+	 *            Position in the cell order
+	 * @return <code>TRUE</code>: The point is the first one of its grid
+	 *         cell<br/>
+	 *         <code>FALSE</code>: The previous point is in the same grid cell
+	 */
+	private boolean isFirstOfCell(int i) {
+		return i == 0
+				|| this.keys[this.cellOrder[i]] != this.keys[this.cellOrder[i - 1]];
+	}
+
+	/**
+	 * Sort the points by their grid cells. A merge sort is used, so points of
+	 * the same grid cell keep their order.
+	 * 
+	 * @param keys
+	 *            Key of the grid cell of each point
+	 * @return Indexes of the points sorted by their grid cells
+	 */
+	private static int[] sort(long[] keys) {
+		int[] sorted = new int[keys.length];
+		for (int i = 0; i < sorted.length; i++) {
+			sorted[i] = i;
+		}
+		int[] buffer = new int[keys.length];
+		for (int width = 1; width < sorted.length; width *= 2) {
+			for (int low = 0; low < sorted.length; low += 2 * width) {
+				int middle = Math.min(low + width, sorted.length);
+				int high = Math.min(low + 2 * width, sorted.length);
+				int left = low;
+				int right = middle;
+				for (int i = low; i < high; i++) {
+					if (left < middle
+							&& (right >= high || keys[sorted[left]] <= keys[sorted[right]])) {
+						buffer[i] = sorted[left++];
+					} else {
+						buffer[i] = sorted[right++];
+					}
+				}
+			}
+			int[] swap = sorted;
+			sorted = buffer;
+			buffer = swap;
+		}
+		return sorted;
+	}
+}
@@ -0,0 +1,76 @@
+package de.mrunde.bachelorthesis.data;
+
+import java.io.File;
+import java.io.IOException;
+
+import de.mrunde.bachelorthesis.basics.SpatialIndex;
+
+/**
+ * The FeatureRepository holds the landmarks, street furniture and
+ * intersections of the feature store together with the spatial index of each
+ * layer. Both are views of the mapped file of the store, so the repository
+ * holds no features on the Java heap. The pages of the file are loaded by the
+ * system when they are read and may be dropped again at any time. It is
+ * immutable, so a single instance can be shared by all navigations of the
+ * process and used from any thread.
+ * 
+ * @author Marius Runde
+ */
+public class FeatureRepository {
+
+	/**
+	 * The feature store
+	 */
+	private final FeatureStore store;
+
+	/**
+	 * Constructor of the FeatureRepository class
+	 * 
+	 * @param store
+	 *            The feature store
+	 */
+	public FeatureRepository(FeatureStore store) {
+		this.store = store;
+	}
+
+	/**
+	 * Open the feature store of a file and create the repository
+	 * 
+	 * @param file
+	 *            The file of the feature store
+	 * @return The repository
+	 * @throws IOException
+	 *             If the file could not be mapped or is no feature store
+	 */
+	public static FeatureRepository open(File file) throws IOException {
+		return new FeatureRepository(FeatureStore.open(file));
+	}
+
+	/**
+	 * @return The feature store
+	 */
+	public FeatureStore getStore() {
+		return this.store;
+	}
+
+	/**
+	 * @param layer
+	 *            The layer
+	 * @return The spatial index of the features of the layer
+	 */
+	public SpatialIndex getSpatialIndex(int layer) {
+		return this.store.getSpatialIndex(layer);
+	}
+
+	/**
+	 * @return The spatial indexes of all layers (ordered by the layers of the
+	 *         feature store)
+	 */
+	public SpatialIndex[] getSpatialIndexes() {
+		SpatialIndex[] layers = new SpatialIndex[FeatureStore.NUMBER_OF_LAYERS];
+		for (int layer = 0; layer < FeatureStore.NUMBER_OF_LAYERS; layer++) {
+			layers[layer] = this.store.getSpatialIndex(layer);
+		}
+		return layers;
+	}
+}
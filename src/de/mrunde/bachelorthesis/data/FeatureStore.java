@@ -0,0 +1,331 @@
+package de.mrunde.bachelorthesis.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import de.mrunde.bachelorthesis.basics.SpatialIndex;
+
+/**
+ * The FeatureStore gives access to the landmarks, street furniture and
+ * intersections stored in the binary form written by the
+ * <code>FeatureStoreWriter</code>. The file is mapped into memory and all
+ * values are read in place, so opening a store takes constant time and the
+ * features do not occupy the Java heap.<br/>
+ * <br/>
+ * The features are divided into layers. Each feature consists of its
+ * coordinates in microdegrees, its radius of visibility in meters, the index
+ * of its category (in <code>LandmarkCategory.getCategories()</code> or
+ * <code>StreetFurnitureCategory.getCategories()</code>, -1 if it has no
+ * correct category) and the index of its title in the title table (-1 if it
+ * has no title). Equal titles are stored only once.<br/>
+ * <br/>
+ * The store is pre-indexed: the grid table of the <code>SpatialIndex</code> of
+ * each layer is stored next to the features. So the spatial index of a layer
+ * is a view of the store as well and the features are queried in place.<br/>
+ * <br/>
+ * Layout of the file (big-endian):
+ * <ul>
+ * <li>Header: magic number, version, number of features of each layer,
+ * number of titles and length of the title data</li>
+ * <li>Features of all layers (5 <code>int</code> values each)</li>
+ * <li>Grid table of each layer (see <code>SpatialIndex</code>)</li>
+ * <li>Title table: start of each title in the title data (the last element
+ * marks the end)</li>
+ * <li>Title data: all titles UTF-8 encoded</li>
+ * </ul>
+ * 
+ * @author Marius Runde
+ */
+public class FeatureStore {
+
+	/**
+	 * Layer of the local landmarks
+	 */
+	public static final int LOCAL_LANDMARKS = 0;
+
+	/**
+	 * Layer of the global landmarks
+	 */
+	public static final int GLOBAL_LANDMARKS = 1;
+
+	/**
+	 * Layer of the street furniture
+	 */
+	public static final int STREET_FURNITURE = 2;
+
+	/**
+	 * Layer of the intersections
+	 */
+	public static final int INTERSECTIONS = 3;
+
+	/**
+	 * Number of layers
+	 */
+	public static final int NUMBER_OF_LAYERS = 4;
+
+	/**
+	 * Magic number at the beginning of the file ("FEAT")
+	 */
+	static final int MAGIC = 0x46454154;
+
+	/**
+	 * Version of the binary format
+	 */
+	static final int VERSION = 3;
+
+	/**
+	 * Size of the header in bytes
+	 */
+	static final int HEADER_SIZE = 4 * (2 + NUMBER_OF_LAYERS + 2);
+
+	/**
+	 * Size of a feature in bytes
+	 */
+	static final int FEATURE_SIZE = 4 * 5;
+
+	// --- The positions of the values inside of a feature ---
+	/**
+	 * Position of the latitude
+	 */
+	private static final int LATITUDE = 0;
+
+	/**
+	 * Position of the longitude
+	 */
+	private static final int LONGITUDE = 4;
+
+	/**
+	 * Position of the radius of visibility
+	 */
+	private static final int RADIUS = 8;
+
+	/**
+	 * Position of the index of the category
+	 */
+	private static final int CATEGORY = 12;
+
+	/**
+	 * Position of the index of the title
+	 */
+	private static final int TITLE = 16;
+
+	// --- End of positions ---
+
+	/**
+	 * The content of the store
+	 */
+	private ByteBuffer buffer;
+
+	/**
+	 * Number of features of each layer
+	 */
+	private int[] sizes = new int[NUMBER_OF_LAYERS];
+
+	/**
+	 * Position of the first feature of each layer
+	 */
+	private int[] layerStarts = new int[NUMBER_OF_LAYERS];
+
+	/**
+	 * Spatial index of the features of each layer
+	 */
+	private SpatialIndex[] spatialIndexes = new SpatialIndex[NUMBER_OF_LAYERS];
+
+	/**
+	 * Number of titles
+	 */
+	private int numberOfTitles;
+
+	/**
+	 * Position of the title table
+	 */
+	private int titleTableStart;
+
+	/**
+	 * Position of the title data
+	 */
+	private int titleDataStart;
+
+	/**
+	 * Constructor of the FeatureStore class
+	 * 
+	 * @param buffer
+	 *            The content of the store
+	 * @throws IOException
+	 *             If the content is no feature store
+	 */
+	FeatureStore(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+			throw new IOException("The content is no feature store");
+		}
+		int version = buffer.getInt(4);
+		if (version != VERSION) {
+			throw new IOException("Unknown version of the feature store: "
+					+ version);
+		}
+
+		// Read the header
+		int position = HEADER_SIZE;
+		for (int layer = 0; layer < NUMBER_OF_LAYERS; layer++) {
+			this.sizes[layer] = buffer.getInt(8 + 4 * layer);
+			this.layerStarts[layer] = position;
+			position += this.sizes[layer] * FEATURE_SIZE;
+		}
+		for (int layer = 0; layer < NUMBER_OF_LAYERS; layer++) {
+			try {
+				this.spatialIndexes[layer] = new SpatialIndex(buffer,
+						this.layerStarts[layer], FEATURE_SIZE,
+						this.sizes[layer], position);
+			} catch (IllegalArgumentException e) {
+				throw new IOException("The feature store is incomplete");
+			}
+			position = this.spatialIndexes[layer].getGridEnd();
+		}
+		this.numberOfTitles = buffer.getInt(8 + 4 * NUMBER_OF_LAYERS);
+		int titleDataLength = buffer.getInt(12 + 4 * NUMBER_OF_LAYERS);
+		this.titleTableStart = position;
+		this.titleDataStart = position + 4 * (this.numberOfTitles + 1);
+		if (this.titleDataStart + titleDataLength > buffer.capacity()) {
+			throw new IOException("The feature store is incomplete");
+		}
+	}
+
+	/**
+	 * Open a feature store by mapping its file into memory
+	 * 
+	 * @param file
+	 *            The file of the store
+	 * @return The feature store
+	 * @throws IOException
+	 *             If the file could not be mapped or is no feature store
+	 */
+	public static FeatureStore open(File file) throws IOException {
+		RandomAccessFile input = new RandomAccessFile(file, "r");
+		try {
+			// The mapping stays valid after the file has been closed
+			ByteBuffer buffer = input.getChannel().map(
+					FileChannel.MapMode.READ_ONLY, 0, input.length());
+			return new FeatureStore(buffer);
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * @param layer
+	 *            The layer
+	 * @return The number of features of the layer
+	 */
+	public int size(int layer) {
+		return this.sizes[layer];
+	}
+
+	/**
+	 * @param layer
+	 *            The layer
+	 * @param index
+	 *            Index of the feature
+	 * @return The latitude of the feature in microdegrees
+	 */
+	public int getLatitudeE6(int layer, int index) {
+		return getInt(layer, index, LATITUDE);
+	}
+
+	/**
+	 * @param layer
+	 *            The layer
+	 * @param index
+	 *            Index of the feature
+	 * @return The longitude of the feature in microdegrees
+	 */
+	public int getLongitudeE6(int layer, int index) {
+		return getInt(layer, index, LONGITUDE);
+	}
+
+	/**
+	 * @param layer
+	 *            The layer
+	 * @param index
+	 *            Index of the feature
+	 * @return The radius of visibility of the feature in meters
+	 */
+	public int getRadius(int layer, int index) {
+		return getInt(layer, index, RADIUS);
+	}
+
+	/**
+	 * @param layer
+	 *            The layer
+	 * @param index
+	 *            Index of the feature
+	 * @return The index of the category of the feature. -1 if the category is
+	 *         not correct.
+	 */
+	public int getCategory(int layer, int index) {
+		return getInt(layer, index, CATEGORY);
+	}
+
+	/**
+	 * @param layer
+	 *            The layer
+	 * @param index
+	 *            Index of the feature
+	 * @return The title of the feature. <code>null</code> if it has no title.
+	 */
+	public String getTitle(int layer, int index) {
+		int title = getInt(layer, index, TITLE);
+		if (title < 0 || title >= this.numberOfTitles) {
+			return null;
+		}
+		int start = this.buffer.getInt(this.titleTableStart + 4 * title);
+		int end = this.buffer.getInt(this.titleTableStart + 4 * (title + 1));
+		byte[] bytes = new byte[end - start];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = this.buffer.get(this.titleDataStart + start + i);
+		}
+		try {
+			return new String(bytes, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			// Every Java platform supports UTF-8
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Get the spatial index of the features of a layer. The indexes of the
+	 * features in the spatial index are equal to their indexes in the store.
+	 * The spatial index reads the features and its grid table in place.
+	 * 
+	 * @param layer
+	 *            The layer
+	 * @return The spatial index
+	 */
+	public SpatialIndex getSpatialIndex(int layer) {
+		return this.spatialIndexes[layer];
+	}
+
+	/**
+	 * Read a value of a feature
+	 * 
+	 * @param layer
+	 *            The layer
+	 * @param index
+	 *            Index of the feature
+	 * @param value
+	 *            Position of the value inside of the feature
+	 * @return The value
+	 */
+	private int getInt(int layer, int index, int value) {
+		if (index < 0 || index >= this.sizes[layer]) {
+			throw new IndexOutOfBoundsException("Feature " + index
+					+ " does not exist in layer " + layer);
+		}
+		return this.buffer.getInt(this.layerStarts[layer] + index
+				* FEATURE_SIZE + value);
+	}
+}
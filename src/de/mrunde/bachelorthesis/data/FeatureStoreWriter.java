@@ -0,0 +1,198 @@
+package de.mrunde.bachelorthesis.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.mrunde.bachelorthesis.basics.SpatialIndexWriter;
+
+/**
+ * The FeatureStoreWriter collects landmarks, street furniture and
+ * intersections and writes them in the binary form read by the
+ * <code>FeatureStore</code>. It is used by the FeatureCompiler (see
+ * tools/README.md) to create the feature store of the application when it is
+ * built.
+ * 
+ * @author Marius Runde
+ */
+public class FeatureStoreWriter {
+
+	/**
+	 * Number of values of a feature
+	 */
+	private static final int VALUES = FeatureStore.FEATURE_SIZE / 4;
+
+	/**
+	 * The values of the features of each layer
+	 */
+	private int[][] layers = new int[FeatureStore.NUMBER_OF_LAYERS][];
+
+	/**
+	 * Number of features of each layer
+	 */
+	private int[] sizes = new int[FeatureStore.NUMBER_OF_LAYERS];
+
+	/**
+	 * Index of each title in the title table
+	 */
+	private Map<String, Integer> titleIndexes = new HashMap<String, Integer>();
+
+	/**
+	 * Start of each title in the title data
+	 */
+	private List<Integer> titleStarts = new ArrayList<Integer>();
+
+	/**
+	 * All titles UTF-8 encoded
+	 */
+	private ByteArrayOutputStream titleData = new ByteArrayOutputStream();
+
+	/**
+	 * Constructor of the FeatureStoreWriter class
+	 */
+	public FeatureStoreWriter() {
+		for (int layer = 0; layer < FeatureStore.NUMBER_OF_LAYERS; layer++) {
+			this.layers[layer] = new int[64 * VALUES];
+		}
+	}
+
+	/**
+	 * Add a feature
+	 * 
+	 * @param layer
+	 *            The layer of the feature
+	 * @param lat
+	 *            Latitude in degrees
+	 * @param lng
+	 *            Longitude in degrees
+	 * @param radius
+	 *            Radius of visibility in meters
+	 * @param category
+	 *            Index of the category. -1 if the feature has no category.
+	 * @param title
+	 *            The title. <code>null</code> if the feature has no title.
+	 */
+	public void addFeature(int layer, double lat, double lng, int radius,
+			int category, String title) {
+		int size = this.sizes[layer];
+		if ((size + 1) * VALUES > this.layers[layer].length) {
+			int[] values = new int[this.layers[layer].length * 2];
+			System.arraycopy(this.layers[layer], 0, values, 0, size * VALUES);
+			this.layers[layer] = values;
+		}
+
+		int[] values = this.layers[layer];
+		int position = size * VALUES;
+		values[position] = (int) Math.round(lat * 1E6);
+		values[position + 1] = (int) Math.round(lng * 1E6);
+		values[position + 2] = radius;
+		values[position + 3] = category;
+		values[position + 4] = internTitle(title);
+		this.sizes[layer]++;
+	}
+
+	/**
+	 * @param layer
+	 *            The layer
+	 * @return The number of features added to the layer
+	 */
+	public int size(int layer) {
+		return this.sizes[layer];
+	}
+
+	/**
+	 * Add a title to the title table if it is not stored already
+	 * 
+	 * @param title
+	 *            The title
+	 * @return The index of the title in the title table. -1 if
+	 *         <code>title</code> is <code>null</code>.
+	 */
+	private int internTitle(String title) {
+		if (title == null) {
+			return -1;
+		}
+		Integer index = this.titleIndexes.get(title);
+		if (index == null) {
+			index = this.titleStarts.size();
+			this.titleIndexes.put(title, index);
+			this.titleStarts.add(this.titleData.size());
+			try {
+				this.titleData.write(title.getBytes("UTF-8"));
+			} catch (IOException e) {
+				// Every Java platform supports UTF-8 and writing into a
+				// ByteArrayOutputStream does not fail
+				throw new RuntimeException(e);
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Create the grid of the spatial index of a layer
+	 * 
+	 * @param layer
+	 *            The layer
+	 * @return The writer of the grid table
+	 */
+	private SpatialIndexWriter createGrid(int layer) {
+		int size = this.sizes[layer];
+		int[] values = this.layers[layer];
+		double[] latitudes = new double[size];
+		double[] longitudes = new double[size];
+		int[] radii = new int[size];
+		for (int i = 0; i < size; i++) {
+			// Use the rounded coordinates as they are read from the store
+			latitudes[i] = values[i * VALUES] / 1E6;
+			longitudes[i] = values[i * VALUES + 1] / 1E6;
+			radii[i] = values[i * VALUES + 2];
+		}
+		return new SpatialIndexWriter(latitudes, longitudes, radii);
+	}
+
+	/**
+	 * Write all added features
+	 * 
+	 * @param output
+	 *            The output to write to
+	 * @throws IOException
+	 *             If the features could not be written
+	 */
+	public void writeTo(OutputStream output) throws IOException {
+		DataOutputStream out = new DataOutputStream(output);
+
+		// --- Write the header ---
+		out.writeInt(FeatureStore.MAGIC);
+		out.writeInt(FeatureStore.VERSION);
+		for (int layer = 0; layer < FeatureStore.NUMBER_OF_LAYERS; layer++) {
+			out.writeInt(this.sizes[layer]);
+		}
+		out.writeInt(this.titleStarts.size());
+		out.writeInt(this.titleData.size());
+
+		// --- Write the features ---
+		for (int layer = 0; layer < FeatureStore.NUMBER_OF_LAYERS; layer++) {
+			for (int i = 0; i < this.sizes[layer] * VALUES; i++) {
+				out.writeInt(this.layers[layer][i]);
+			}
+		}
+
+		// --- Write the grid tables ---
+		for (int layer = 0; layer < FeatureStore.NUMBER_OF_LAYERS; layer++) {
+			createGrid(layer).writeTo(out);
+		}
+
+		// --- Write the titles ---
+		for (int i = 0; i < this.titleStarts.size(); i++) {
+			out.writeInt(this.titleStarts.get(i));
+		}
+		out.writeInt(this.titleData.size());
+		this.titleData.writeTo(out);
+		out.flush();
+	}
+}
@@ -0,0 +1,268 @@
+package de.mrunde.bachelorthesis.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.IOUtils;
+
+import android.util.Log;
+
+import de.mrunde.bachelorthesis.basics.Route;
+
+/**
+ * The GuidanceCache stores downloaded routes in a directory (e.g. in the
+ * files directory of the application) so that a route that has already been
+ * requested does neither have to be downloaded nor parsed again. The routes
+ * are stored in the binary form of <code>Route.writeTo()</code>.<br/>
+ * <br/>
+ * The size of the directory is limited. If it is exceeded, the least recently
+ * used routes are deleted.
+ * 
+ * @author Marius Runde
+ */
+public class GuidanceCache {
+
+	/**
+	 * Number of decimals the coordinates of a key are rounded to (4 decimals
+	 * are about 10 meters)
+	 */
+	private static final int KEY_DECIMALS = 4;
+
+	/**
+	 * Pattern of the coordinates in a key
+	 */
+	private static final Pattern COORDINATE = Pattern.compile("-?\\d+\\.\\d+");
+
+	/**
+	 * File extension of the cached routes
+	 */
+	private static final String EXTENSION = ".route";
+
+	/**
+	 * Directory of the cached routes
+	 */
+	private File directory;
+
+	/**
+	 * Maximal size of all cached routes in bytes
+	 */
+	private long maxSize;
+
+	/**
+	 * Constructor of the GuidanceCache class
+	 * 
+	 * @param directory
+	 *            Directory of the cached routes. It is created if necessary.
+	 * @param maxSize
+	 *            Maximal size of all cached routes in bytes
+	 */
+	public GuidanceCache(File directory, long maxSize) {
+		this.directory = directory;
+		this.maxSize = maxSize;
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			Log.e("GuidanceCache", "Could not create the cache directory "
+					+ directory);
+		}
+	}
+
+	/**
+	 * Create the key of a route. The coordinates in the locations are rounded
+	 * so that a route requested from almost the same location is found again.
+	 * 
+	 * @param from
+	 *            The starting location (as used for the request)
+	 * @param to
+	 *            The destination (as used for the request)
+	 * @param routeOptions
+	 *            The route options (already formatted as a String)
+	 * @return The key
+	 */
+	public static String createKey(String from, String to,
+			String routeOptions) {
+		return round(from) + "|" + round(to) + "|" + routeOptions;
+	}
+
+	/**
+	 * Round all coordinates in a location
+	 * 
+	 * @param location
+	 *            The location
+	 * @return The location with rounded coordinates
+	 */
+	private static String round(String location) {
+		if (location == null) {
+			return null;
+		}
+		Matcher matcher = COORDINATE.matcher(location);
+		StringBuffer result = new StringBuffer();
+		while (matcher.find()) {
+			double coordinate = Double.parseDouble(matcher.group());
+			matcher.appendReplacement(result, String.format(Locale.US, "%."
+					+ KEY_DECIMALS + "f", coordinate));
+		}
+		matcher.appendTail(result);
+		return result.toString();
+	}
+
+	/**
+	 * Get a cached route
+	 * 
+	 * @param key
+	 *            The key of the route (see <code>createKey()</code>)
+	 * @return The route or <code>null</code> if it is not cached
+	 */
+	public synchronized Route get(String key) {
+		File file = getFile(key);
+		if (!file.isFile()) {
+			return null;
+		}
+
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file)));
+			Route route = Route.readFrom(in);
+
+			// Mark the route as recently used
+			file.setLastModified(System.currentTimeMillis());
+			return route;
+		} catch (IOException e) {
+			Log.e("GuidanceCache",
+					"Could not read the cached route. This is the error message: "
+							+ e.getMessage());
+			file.delete();
+			return null;
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+
+	/**
+	 * Store a route in the cache and delete the least recently used routes if
+	 * the maximal size has been exceeded
+	 * 
+	 * @param key
+	 *            The key of the route (see <code>createKey()</code>)
+	 * @param route
+	 *            The route
+	 */
+	public synchronized void put(String key, Route route) {
+		File file = getFile(key);
+		File temp = new File(this.directory, file.getName() + ".tmp");
+
+		// Write into a temporary file first so that no incomplete route can
+		// be read
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(temp)));
+			route.writeTo(out);
+			out.close();
+			out = null;
+			if (!temp.renameTo(file)) {
+				throw new IOException("Could not rename " + temp);
+			}
+		} catch (IOException e) {
+			Log.e("GuidanceCache",
+					"Could not cache the route. This is the error message: "
+							+ e.getMessage());
+			temp.delete();
+			return;
+		} finally {
+			IOUtils.closeQuietly(out);
+		}
+
+		trim();
+	}
+
+	/**
+	 * Delete the least recently used routes until the size of the cache does
+	 * not exceed its maximal size
+	 */
+	private void trim() {
+		File[] files = this.directory.listFiles();
+		if (files == null) {
+			return;
+		}
+		long size = 0;
+		for (int i = 0; i < files.length; i++) {
+			size += files[i].length();
+		}
+		if (size <= this.maxSize) {
+			return;
+		}
+
+		// Sort the routes by their last usage (least recently used first)
+		final long[] lastModified = new long[files.length];
+		Integer[] sorted = new Integer[files.length];
+		for (int i = 0; i < files.length; i++) {
+			lastModified[i] = files[i].lastModified();
+			sorted[i] = i;
+		}
+		Arrays.sort(sorted, new Comparator<Integer>() {
+
+			@Override
+			public int compare(Integer lhs, Integer rhs) {
+				if (lastModified[lhs] != lastModified[rhs]) {
+					return lastModified[lhs] < lastModified[rhs] ? -1 : 1;
+				}
+				return 0;
+			}
+		});
+
+		for (int i = 0; i < sorted.length && size > this.maxSize; i++) {
+			File file = files[sorted[i]];
+			long length = file.length();
+			if (file.delete()) {
+				size -= length;
+			}
+		}
+	}
+
+	/**
+	 * @param key
+	 *            The key of the route
+	 * @return The file of the route
+	 */
+	private File getFile(String key) {
+		return new File(this.directory, hash(key) + EXTENSION);
+	}
+
+	/**
+	 * Create a file name out of a key
+	 * 
+	 * @param key
+	 *            The key
+	 * @return The MD5 hash of the key as a hexadecimal String
+	 */
+	private static String hash(String key) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("MD5");
+			byte[] bytes = digest.digest(key.getBytes("UTF-8"));
+			StringBuilder result = new StringBuilder();
+			for (int i = 0; i < bytes.length; i++) {
+				result.append(String.format(Locale.US, "%02x", bytes[i]));
+			}
+			return result.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform supports MD5
+			throw new RuntimeException(e);
+		} catch (IOException e) {
+			// Every Java platform supports UTF-8
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package de.mrunde.bachelorthesis.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+
+import org.apache.commons.io.IOUtils;
+
+import android.util.Log;
+
+import de.mrunde.bachelorthesis.basics.Route;
+
+/**
+ * The GuidanceClient requests the guidance information of a route from the
+ * MapQuest Guidance API. The response is parsed into the route while it is
+ * being downloaded. Routes that have been requested before are taken from the
+ * guidance cache instead.<br/>
+ * <br/>
+ * The URL of the API can be replaced, e.g. by a local server for testing. The
+ * requests are executed by the given transport, so they can also be answered
+ * without any server (see <code>Transport</code>).
+ * 
+ * @author Marius Runde
+ */
+public class GuidanceClient {
+
+	/**
+	 * The transport of the requests
+	 */
+	private Transport transport;
+
+	/**
+	 * URL of the MapQuest Guidance API
+	 */
+	private String url;
+
+	/**
+	 * The key of the MapQuest API
+	 */
+	private String apiKey;
+
+	/**
+	 * Cache of the downloaded routes
+	 */
+	private GuidanceCache cache;
+
+	/**
+	 * Constructor of the GuidanceClient class
+	 * 
+	 * @param transport
+	 *            The transport of the requests
+	 * @param url
+	 *            URL of the MapQuest Guidance API
+	 * @param apiKey
+	 *            The key of the MapQuest API
+	 * @param cache
+	 *            Cache of the downloaded routes
+	 */
+	public GuidanceClient(Transport transport, String url, String apiKey,
+			GuidanceCache cache) {
+		this.transport = transport;
+		this.url = url;
+		this.apiKey = apiKey;
+		this.cache = cache;
+	}
+
+	/**
+	 * Get the route from the cache or download it. This method blocks, so it
+	 * must not be called on the UI thread.
+	 * 
+	 * @param from
+	 *            The start of the route as a MapQuest location String
+	 * @param to
+	 *            The destination of the route as a MapQuest location String
+	 * @param routeOptions
+	 *            Route options (already formatted as a String)
+	 * @return The route
+	 * @throws IOException
+	 *             If the route could not be downloaded or parsed
+	 */
+	public Route getRoute(String from, String to, String routeOptions)
+			throws IOException {
+		// Check if the route has already been downloaded
+		String key = GuidanceCache.createKey(from, to, routeOptions);
+		Route route = this.cache.get(key);
+		if (route != null) {
+			Log.i("GuidanceClient", "Guidance has been found in the cache");
+			return route;
+		}
+
+		// Get the data from the URL and parse it while downloading. The
+		// "renderBasicInformation" stuff around the JSON is skipped by the
+		// parser.
+		long start = System.currentTimeMillis();
+		InputStream content = this.transport.get(createUrl(from, to));
+		try {
+			route = GuidanceParser.parse(content);
+		} finally {
+			// Give the connection back to the transport
+			IOUtils.closeQuietly(content);
+		}
+		Log.i("GuidanceClient", "Guidance downloaded and parsed in "
+				+ (System.currentTimeMillis() - start) + " ms");
+
+		this.cache.put(key, route);
+		return route;
+	}
+
+	/**
+	 * Create the URL to request the guidance from MapQuest
+	 * 
+	 * @param from
+	 *            The start of the route as a MapQuest location String
+	 * @param to
+	 *            The destination of the route as a MapQuest location String
+	 * @return The URL
+	 */
+	private String createUrl(String from, String to) {
+		try {
+			return this.url
+					+ "?key="
+					+ this.apiKey
+					+ "&from="
+					+ URLEncoder.encode(from, "UTF-8")
+					+ "&to="
+					+ URLEncoder.encode(to, "UTF-8")
+					+ "&narrativeType=text&fishbone=false&callback=renderBasicInformation";
+		} catch (UnsupportedEncodingException e) {
+			// Every Java platform supports UTF-8
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,285 @@
+package de.mrunde.bachelorthesis.data;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+import de.mrunde.bachelorthesis.basics.Route;
+
+/**
+ * The GuidanceParser reads the response of the MapQuest Guidance API directly
+ * from a stream and creates the <code>Route</code> in one pass. Only the
+ * values required by the route are kept: all other values are skipped while
+ * reading, so neither the complete response nor a <code>JSONObject</code> tree
+ * of it is kept in memory.<br/>
+ * <br/>
+ * The response may be wrapped into a JSONP callback (e.g.
+ * <code>renderBasicInformation(...);</code>). Everything before the first
+ * <code>{</code> and after the matching <code>}</code> is ignored.
+ * 
+ * @author Marius Runde
+ */
+public class GuidanceParser {
+
+	/**
+	 * Size of the read buffer in characters
+	 */
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * The tokenizer of the response
+	 */
+	private JsonTokenizer json;
+
+	// --- The extracted guidance information ---
+	/**
+	 * The maneuver types
+	 */
+	private IntArray maneuvers = new IntArray();
+
+	/**
+	 * The indexes of the required entries in the
+	 * <code>GuidanceLinkCollection</code>
+	 */
+	private IntArray linkIndexes = new IntArray();
+
+	/**
+	 * Latitudes and longitudes of all shape points in alternating order
+	 */
+	private DoubleArray shapePoints = new DoubleArray();
+
+	/**
+	 * The distances of all street segments
+	 */
+	private DoubleArray distances = new DoubleArray();
+
+	/**
+	 * The indexes of the "real" decision points in the shape points
+	 */
+	private IntArray shapePointIndexes = new IntArray();
+
+	// --- End of guidance information ---
+
+	/**
+	 * Constructor of the GuidanceParser class
+	 * 
+	 * @param in
+	 *            Stream of the response (UTF-8 encoded)
+	 * @throws IOException
+	 *             The stream could not be read
+	 */
+	private GuidanceParser(InputStream in) throws IOException {
+		this.json = new JsonTokenizer(new BufferedReader(new InputStreamReader(
+				in, "UTF-8"), BUFFER_SIZE));
+	}
+
+	/**
+	 * Read the response of the MapQuest Guidance API and create the route
+	 * 
+	 * @param in
+	 *            Stream of the response (UTF-8 encoded). It is not closed by
+	 *            this method.
+	 * @return The route
+	 * @throws IOException
+	 *             The stream could not be read or does not contain valid
+	 *             guidance information
+	 */
+	public static Route parse(InputStream in) throws IOException {
+		GuidanceParser parser = new GuidanceParser(in);
+		parser.parseResponse();
+		return parser.createRoute();
+	}
+
+	/**
+	 * Create the route from the extracted guidance information
+	 * 
+	 * @return The route
+	 * @throws IOException
+	 *             The guidance information is not complete
+	 */
+	private Route createRoute() throws IOException {
+		if (this.maneuvers.size() == 0 || this.shapePoints.size() < 2
+				|| this.distances.size() == 0) {
+			throw new IOException("The response contains no guidance");
+		}
+		return new Route(this.maneuvers.toArray(), this.linkIndexes.toArray(),
+				this.shapePoints.toArray(), this.distances.toArray(),
+				this.shapePointIndexes.toArray());
+	}
+
+	/**
+	 * Parse the complete response
+	 * 
+	 * @throws IOException
+	 */
+	private void parseResponse() throws IOException {
+		// Skip the JSONP callback
+		this.json.skipTo('{');
+
+		this.json.beginObject();
+		while (this.json.hasNextMember()) {
+			if ("guidance".equals(this.json.nextName())) {
+				parseGuidance();
+			} else {
+				this.json.skipValue();
+			}
+		}
+	}
+
+	/**
+	 * Parse the <code>guidance</code> object
+	 * 
+	 * @throws IOException
+	 */
+	private void parseGuidance() throws IOException {
+		this.json.beginObject();
+		while (this.json.hasNextMember()) {
+			String name = this.json.nextName();
+			if ("GuidanceNodeCollection".equals(name)) {
+				this.json.beginArray();
+				while (this.json.hasNextElement()) {
+					parseGuidanceNode();
+				}
+			} else if ("shapePoints".equals(name)) {
+				this.json.beginArray();
+				while (this.json.hasNextElement()) {
+					this.shapePoints.add(this.json.nextDouble());
+				}
+			} else if ("GuidanceLinkCollection".equals(name)) {
+				this.json.beginArray();
+				while (this.json.hasNextElement()) {
+					parseGuidanceLink();
+				}
+			} else {
+				this.json.skipValue();
+			}
+		}
+	}
+
+	/**
+	 * Parse an entry of the <code>GuidanceNodeCollection</code>. Only entries
+	 * with a maneuver type are used.
+	 * 
+	 * @throws IOException
+	 */
+	private void parseGuidanceNode() throws IOException {
+		boolean hasManeuverType = false;
+		int maneuverType = 0;
+		boolean hasLinkId = false;
+		int linkId = 0;
+
+		this.json.beginObject();
+		while (this.json.hasNextMember()) {
+			String name = this.json.nextName();
+			if ("maneuverType".equals(name)) {
+				maneuverType = this.json.nextInt();
+				hasManeuverType = true;
+			} else if ("linkIds".equals(name)) {
+				// Only the first link id is required
+				this.json.beginArray();
+				while (this.json.hasNextElement()) {
+					if (hasLinkId) {
+						this.json.skipValue();
+					} else {
+						linkId = this.json.nextInt();
+						hasLinkId = true;
+					}
+				}
+			} else {
+				this.json.skipValue();
+			}
+		}
+
+		if (hasManeuverType) {
+			if (!hasLinkId) {
+				throw new IOException("Maneuver without link id");
+			}
+			this.maneuvers.add(maneuverType);
+			this.linkIndexes.add(linkId);
+		}
+	}
+
+	/**
+	 * Parse an entry of the <code>GuidanceLinkCollection</code>
+	 * 
+	 * @throws IOException
+	 */
+	private void parseGuidanceLink() throws IOException {
+		double length = 0;
+		int shapeIndex = 0;
+
+		this.json.beginObject();
+		while (this.json.hasNextMember()) {
+			String name = this.json.nextName();
+			if ("length".equals(name)) {
+				length = this.json.nextDouble();
+			} else if ("shapeIndex".equals(name)) {
+				shapeIndex = this.json.nextInt();
+			} else {
+				this.json.skipValue();
+			}
+		}
+
+		this.distances.add(length);
+		this.shapePointIndexes.add(shapeIndex);
+	}
+
+	/**
+	 * A growing array of <code>int</code> values
+	 */
+	private static class IntArray {
+
+		private int[] values = new int[64];
+
+		private int size = 0;
+
+		void add(int value) {
+			if (this.size == this.values.length) {
+				int[] newValues = new int[this.size * 2];
+				System.arraycopy(this.values, 0, newValues, 0, this.size);
+				this.values = newValues;
+			}
+			this.values[this.size++] = value;
+		}
+
+		int size() {
+			return this.size;
+		}
+
+		int[] toArray() {
+			int[] result = new int[this.size];
+			System.arraycopy(this.values, 0, result, 0, this.size);
+			return result;
+		}
+	}
+
+	/**
+	 * A growing array of <code>double</code> values
+	 */
+	private static class DoubleArray {
+
+		private double[] values = new double[64];
+
+		private int size = 0;
+
+		void add(double value) {
+			if (this.size == this.values.length) {
+				double[] newValues = new double[this.size * 2];
+				System.arraycopy(this.values, 0, newValues, 0, this.size);
+				this.values = newValues;
+			}
+			this.values[this.size++] = value;
+		}
+
+		int size() {
+			return this.size;
+		}
+
+		double[] toArray() {
+			double[] result = new double[this.size];
+			System.arraycopy(this.values, 0, result, 0, this.size);
+			return result;
+		}
+	}
+}
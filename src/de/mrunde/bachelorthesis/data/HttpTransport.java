@@ -0,0 +1,131 @@
+package de.mrunde.bachelorthesis.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.StatusLine;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+
+/**
+ * The HttpTransport executes the HTTP requests of the application with one
+ * shared client. Its connections are kept alive and reused by the following
+ * requests, so the TCP and TLS handshakes are not repeated for every request.
+ * The responses are requested gzip compressed and decompressed while they are
+ * read. Connecting and reading are limited by timeouts, so a request does not
+ * hang on a bad mobile connection.
+ * 
+ * @author Marius Runde
+ */
+public class HttpTransport implements Transport {
+
+	/**
+	 * Timeout to establish a connection in milliseconds
+	 */
+	private static final int CONNECT_TIMEOUT = 10000;
+
+	/**
+	 * Timeout to wait for data of the response in milliseconds
+	 */
+	private static final int READ_TIMEOUT = 20000;
+
+	/**
+	 * Size of the socket buffer in bytes
+	 */
+	private static final int SOCKET_BUFFER_SIZE = 8192;
+
+	/**
+	 * Maximum number of connections kept by the client
+	 */
+	private static final int MAX_CONNECTIONS = 4;
+
+	/**
+	 * The shared client
+	 */
+	private HttpClient client;
+
+	/**
+	 * Constructor of the HttpTransport class
+	 */
+	public HttpTransport() {
+		HttpParams params = new BasicHttpParams();
+		HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+		HttpProtocolParams.setContentCharset(params, "UTF-8");
+		HttpConnectionParams.setConnectionTimeout(params, CONNECT_TIMEOUT);
+		HttpConnectionParams.setSoTimeout(params, READ_TIMEOUT);
+		HttpConnectionParams.setSocketBufferSize(params, SOCKET_BUFFER_SIZE);
+		ConnManagerParams.setMaxTotalConnections(params, MAX_CONNECTIONS);
+
+		// The connection manager is thread safe, so the client can be used by
+		// several background tasks at the same time
+		SchemeRegistry registry = new SchemeRegistry();
+		registry.register(new Scheme("http", PlainSocketFactory
+				.getSocketFactory(), 80));
+		registry.register(new Scheme("https", SSLSocketFactory
+				.getSocketFactory(), 443));
+		this.client = new DefaultHttpClient(new ThreadSafeClientConnManager(
+				params, registry), params);
+	}
+
+	/**
+	 * Request the content of an URL. The content is streamed while it is
+	 * being downloaded. The returned stream must be closed to give the
+	 * connection back for the following requests.
+	 * 
+	 * @param url
+	 *            The URL
+	 * @return The decompressed content
+	 * @throws IOException
+	 *             If the request failed or the response is not OK
+	 */
+	@Override
+	public InputStream get(String url) throws IOException {
+		HttpGet request = new HttpGet(url);
+		request.addHeader("Accept-Encoding", "gzip");
+
+		HttpResponse response = this.client.execute(request);
+		StatusLine statusLine = response.getStatusLine();
+		HttpEntity entity = response.getEntity();
+		if (statusLine.getStatusCode() != HttpStatus.SC_OK) {
+			// Read the rest of the response, so the connection can be reused
+			if (entity != null) {
+				entity.consumeContent();
+			}
+			throw new IOException(statusLine.getStatusCode() + " "
+					+ statusLine.getReasonPhrase());
+		}
+		if (entity == null) {
+			throw new IOException("The response has no content");
+		}
+
+		InputStream content = entity.getContent();
+		Header encoding = entity.getContentEncoding();
+		if (encoding != null && encoding.getValue().equalsIgnoreCase("gzip")) {
+			try {
+				return new GZIPInputStream(content);
+			} catch (IOException e) {
+				// Release the connection if the compressed content is invalid
+				request.abort();
+				throw e;
+			}
+		}
+		return content;
+	}
+}
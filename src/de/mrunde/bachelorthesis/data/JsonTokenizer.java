@@ -0,0 +1,438 @@
+package de.mrunde.bachelorthesis.data;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * The JsonTokenizer reads a JSON document value by value from a stream. The
+ * caller knows the expected structure and pulls the values in their order of
+ * appearance, e.g.:
+ * 
+ * <pre>
+ * json.beginObject();
+ * while (json.hasNextMember()) {
+ * 	if (&quot;lat&quot;.equals(json.nextName())) {
+ * 		lat = json.nextDouble();
+ * 	} else {
+ * 		json.skipValue();
+ * 	}
+ * }
+ * </pre>
+ * 
+ * Values that are not required are skipped without being stored, so no tree
+ * of the document is kept in memory.
+ * 
+ * @author Marius Runde
+ */
+public class JsonTokenizer {
+
+	/**
+	 * The reader of the document
+	 */
+	private Reader reader;
+
+	/**
+	 * Character that has been read ahead. -2 if there is none.
+	 */
+	private int peeked = -2;
+
+	/**
+	 * Current line of the document (starting at 1)
+	 */
+	private int line = 1;
+
+	/**
+	 * Buffer to read strings and numbers
+	 */
+	private StringBuilder buffer = new StringBuilder();
+
+	/**
+	 * <code>TRUE</code>: The next value of the current object or array is its
+	 * first one, so it is not preceded by a comma
+	 */
+	private boolean first;
+
+	/**
+	 * Constructor of the JsonTokenizer class
+	 * 
+	 * @param reader
+	 *            The reader of the document. It should be buffered.
+	 */
+	public JsonTokenizer(Reader reader) {
+		this.reader = reader;
+	}
+
+	/**
+	 * @return The current line of the document (starting at 1)
+	 */
+	public int getLine() {
+		return this.line;
+	}
+
+	/**
+	 * Close the reader of the document
+	 * 
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		this.reader.close();
+	}
+
+	/**
+	 * Skip all characters up to the given character. The character itself is
+	 * not skipped.
+	 * 
+	 * @param c
+	 *            The character
+	 * @throws IOException
+	 *             The end of the stream has been reached
+	 */
+	public void skipTo(char c) throws IOException {
+		int next;
+		while ((next = read()) != c) {
+			if (next == -1) {
+				throw syntaxError("Expected '" + c + "'");
+			}
+		}
+		unread(next);
+	}
+
+	/**
+	 * Read the beginning of an object. Its members are read with
+	 * <code>hasNextMember()</code> and <code>nextName()</code>.
+	 * 
+	 * @throws IOException
+	 */
+	public void beginObject() throws IOException {
+		expect('{');
+		this.first = true;
+	}
+
+	/**
+	 * Read the beginning of an array. Its elements are read with
+	 * <code>hasNextElement()</code>.
+	 * 
+	 * @throws IOException
+	 */
+	public void beginArray() throws IOException {
+		expect('[');
+		this.first = true;
+	}
+
+	/**
+	 * Check if the current object has another member
+	 * 
+	 * @return <code>TRUE</code>: Another member follows<br/>
+	 *         <code>FALSE</code>: The end of the object has been read
+	 * @throws IOException
+	 */
+	public boolean hasNextMember() throws IOException {
+		return hasNext('}');
+	}
+
+	/**
+	 * Check if the current array has another element
+	 * 
+	 * @return <code>TRUE</code>: Another element follows<br/>
+	 *         <code>FALSE</code>: The end of the array has been read
+	 * @throws IOException
+	 */
+	public boolean hasNextElement() throws IOException {
+		return hasNext(']');
+	}
+
+	/**
+	 * Check that the document ends after the root value, i.e. only
+	 * whitespace follows it
+	 * 
+	 * @throws IOException
+	 *             Another character follows the root value
+	 */
+	public void endDocument() throws IOException {
+		int c;
+		do {
+			c = read();
+		} while (c == ' ' || c == '\t' || c == '\n' || c == '\r');
+		if (c != -1) {
+			throw syntaxError("Unexpected '" + (char) c
+					+ "' after the end of the document");
+		}
+	}
+
+	/**
+	 * Read the name of the next member of an object including the colon
+	 * 
+	 * @return The name
+	 * @throws IOException
+	 */
+	public String nextName() throws IOException {
+		expect('"');
+		String name = readString();
+		expect(':');
+		return name;
+	}
+
+	/**
+	 * @return The next value as a String
+	 * @throws IOException
+	 *             The next value is not a string
+	 */
+	public String nextString() throws IOException {
+		int c = nextToken();
+		if (c != '"') {
+			throw syntaxError("Expected a string but found '" + (char) c
+					+ "'");
+		}
+		return readString();
+	}
+
+	/**
+	 * @return The next value as a <code>double</code>. A number inside of a
+	 *         string is accepted as well.
+	 * @throws IOException
+	 *             The next value is not a number
+	 */
+	public double nextDouble() throws IOException {
+		int c = nextToken();
+		String value = (c == '"') ? readString() : readLiteral(c);
+		try {
+			return Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			throw syntaxError("Expected a number but found " + value);
+		}
+	}
+
+	/**
+	 * @return The next value as an <code>int</code>
+	 * @throws IOException
+	 *             The next value is not a whole number or does not fit into
+	 *             an <code>int</code>
+	 */
+	public int nextInt() throws IOException {
+		double value = nextDouble();
+		if (value != Math.floor(value) || value < Integer.MIN_VALUE
+				|| value > Integer.MAX_VALUE) {
+			throw syntaxError("Expected an integer but found " + value);
+		}
+		return (int) value;
+	}
+
+	/**
+	 * Skip the next value including all nested objects and arrays
+	 * 
+	 * @throws IOException
+	 */
+	public void skipValue() throws IOException {
+		int c = nextToken();
+		if (c == '"') {
+			readString();
+		} else if (c == '{') {
+			unread(c);
+			beginObject();
+			while (hasNextMember()) {
+				nextName();
+				skipValue();
+			}
+		} else if (c == '[') {
+			unread(c);
+			beginArray();
+			while (hasNextElement()) {
+				skipValue();
+			}
+		} else {
+			readLiteral(c);
+		}
+	}
+
+	/**
+	 * Create the exception of a syntax error
+	 * 
+	 * @param message
+	 *            Description of the error
+	 * @return The exception containing the current line
+	 */
+	public IOException syntaxError(String message) {
+		return new IOException(message + " at line " + this.line);
+	}
+
+	/**
+	 * @return The next character. -1 if the end of the stream has been
+	 *         reached.
+	 * @throws IOException
+	 */
+	private int read() throws IOException {
+		if (this.peeked != -2) {
+			int c = this.peeked;
+			this.peeked = -2;
+			return c;
+		}
+		int c = this.reader.read();
+		if (c == '\n') {
+			this.line++;
+		}
+		return c;
+	}
+
+	/**
+	 * Push a character back so that it is returned by the next
+	 * <code>read()</code> again
+	 * 
+	 * @param c
+	 *            The character
+	 */
+	private void unread(int c) {
+		this.peeked = c;
+	}
+
+	/**
+	 * @return The next character that is not a whitespace
+	 * @throws IOException
+	 *             The end of the stream has been reached
+	 */
+	private int nextToken() throws IOException {
+		int c;
+		do {
+			c = read();
+		} while (c == ' ' || c == '\t' || c == '\n' || c == '\r');
+		if (c == -1) {
+			throw syntaxError("Unexpected end of the document");
+		}
+		return c;
+	}
+
+	/**
+	 * Read the expected character
+	 * 
+	 * @param expected
+	 *            The expected character
+	 * @throws IOException
+	 *             Another character has been read
+	 */
+	private void expect(char expected) throws IOException {
+		int c = nextToken();
+		if (c != expected) {
+			throw syntaxError("Expected '" + expected + "' but found '"
+					+ (char) c + "'");
+		}
+	}
+
+	/**
+	 * Read the separator in front of the next value of an object or array
+	 * 
+	 * @param end
+	 *            The closing character of the container
+	 * @return <code>TRUE</code>: Another value follows<br/>
+	 *         <code>FALSE</code>: The end of the container has been read
+	 * @throws IOException
+	 *             The values are not separated by a comma
+	 */
+	private boolean hasNext(char end) throws IOException {
+		int c = nextToken();
+		if (c == end) {
+			// The closed container is a value of its parent, which is not
+			// the first one anymore
+			this.first = false;
+			return false;
+		}
+
+		// The first value of a container is not preceded by a comma, all
+		// following values are
+		if (this.first) {
+			this.first = false;
+			if (c == ',') {
+				throw syntaxError("Unexpected ','");
+			}
+		} else if (c == ',') {
+			c = nextToken();
+			if (c == end) {
+				throw syntaxError("Unexpected '" + end + "' after ','");
+			}
+		} else {
+			throw syntaxError("Expected ',' or '" + end + "' but found '"
+					+ (char) c + "'");
+		}
+		unread(c);
+		return true;
+	}
+
+	/**
+	 * Read a string after its opening quote
+	 * 
+	 * @return The string
+	 * @throws IOException
+	 */
+	private String readString() throws IOException {
+		this.buffer.setLength(0);
+		while (true) {
+			int c = read();
+			if (c == -1) {
+				throw syntaxError("Unterminated string");
+			} else if (c == '"') {
+				return this.buffer.toString();
+			} else if (c == '\\') {
+				c = read();
+				switch (c) {
+				case 'b':
+					this.buffer.append('\b');
+					break;
+				case 'f':
+					this.buffer.append('\f');
+					break;
+				case 'n':
+					this.buffer.append('\n');
+					break;
+				case 'r':
+					this.buffer.append('\r');
+					break;
+				case 't':
+					this.buffer.append('\t');
+					break;
+				case 'u':
+					char[] hex = new char[4];
+					for (int i = 0; i < hex.length; i++) {
+						hex[i] = (char) read();
+					}
+					try {
+						this.buffer.append((char) Integer.parseInt(
+								new String(hex), 16));
+					} catch (NumberFormatException e) {
+						throw syntaxError("Invalid escape sequence");
+					}
+					break;
+				case -1:
+					throw syntaxError("Unterminated string");
+				default:
+					this.buffer.append((char) c);
+					break;
+				}
+			} else {
+				this.buffer.append((char) c);
+			}
+		}
+	}
+
+	/**
+	 * Read a number, literal (<code>true</code>, <code>false</code> or
+	 * <code>null</code>) up to the next delimiter
+	 * 
+	 * @param first
+	 *            The first character of the value
+	 * @return The value as a String
+	 * @throws IOException
+	 */
+	private String readLiteral(int first) throws IOException {
+		this.buffer.setLength(0);
+		int c = first;
+		while (c != -1 && c != ',' && c != '}' && c != ']' && c != ' '
+				&& c != '\t' && c != '\n' && c != '\r') {
+			this.buffer.append((char) c);
+			c = read();
+		}
+		unread(c);
+		if (this.buffer.length() == 0) {
+			throw syntaxError("Expected a value but found '" + (char) first
+					+ "'");
+		}
+		return this.buffer.toString();
+	}
+}
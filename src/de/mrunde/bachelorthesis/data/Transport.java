@@ -0,0 +1,27 @@
+package de.mrunde.bachelorthesis.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A Transport requests the content of an URL for the GuidanceClient. The
+ * application uses the <code>HttpTransport</code>. Another implementation can
+ * be passed to the GuidanceClient to answer the requests without the MapQuest
+ * servers, e.g. from recorded responses or a local server.
+ * 
+ * @author Marius Runde
+ */
+public interface Transport {
+
+	/**
+	 * Request the content of an URL. The returned stream must be closed after
+	 * it has been read.
+	 * 
+	 * @param url
+	 *            The URL
+	 * @return The content
+	 * @throws IOException
+	 *             If the request failed
+	 */
+	public InputStream get(String url) throws IOException;
+}
@@ -3,66 +3,87 @@ package de.mrunde.bachelorthesis.instructions;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
 import android.util.Log;
 
 import com.mapquest.android.maps.GeoPoint;
 
 import de.mrunde.bachelorthesis.basics.Landmark;
+import de.mrunde.bachelorthesis.basics.LandmarkCategory;
 import de.mrunde.bachelorthesis.basics.Maneuver;
 import de.mrunde.bachelorthesis.basics.Route;
 import de.mrunde.bachelorthesis.basics.RouteSegment;
-import de.mrunde.bachelorthesis.basics.StreetFurniture;
+import de.mrunde.bachelorthesis.basics.SpatialIndex;
 import de.mrunde.bachelorthesis.basics.StreetFurnitureCategory;
+import de.mrunde.bachelorthesis.data.FeatureRepository;
+import de.mrunde.bachelorthesis.data.FeatureStore;
 
 /**
  * The InstructionManager handles turn events in the navigation process. It can
  * create instructions depending on the available landmarks, street furniture or
- * intersections.
+ * intersections.<br/>
+ * <br/>
+ * The instructions are created route segment by route segment, so they can be
+ * created in the background while the navigation already uses the first ones.
+ * All public methods are synchronized for this reason.
  * 
  * @author Marius Runde
  */
 public class InstructionManager {
 
 	/**
-	 * This is the maximal distance between the decision point and a street
-	 * furniture
+	 * This is the maximal number of intersections to be used for an instruction
 	 */
-	private final int MAX_DISTANCE_TO_STREET_FURNITURE = 16;
+	private final int MAX_NUMBER_OF_STREET_FURNITURE = 2;
 
 	/**
 	 * This is the maximal number of intersections to be used for an instruction
 	 */
-	private final int MAX_NUMBER_OF_STREET_FURNITURE = 2;
+	private final int MAX_NUMBER_OF_INTERSECTIONS = 3;
 
 	/**
-	 * This is the maximal distance between the decision point and an
-	 * intersection
+	 * Store the route information
 	 */
-	private final int MAX_DISTANCE_TO_INTERSECTION = 16;
+	private Route route;
 
 	/**
-	 * This is the maximal number of intersections to be used for an instruction
+	 * Instructions created by the InstructionManager that have not been
+	 * dropped yet
 	 */
-	private final int MAX_NUMBER_OF_INTERSECTIONS = 3;
+	private List<Instruction> instructions;
 
 	/**
-	 * Value to check if the JSON import succeeded
+	 * Index of the route segment of each instruction in
+	 * <code>instructions</code>
 	 */
-	private boolean importSuccessful;
+	private List<Integer> instructionSegments;
 
 	/**
-	 * Store the route information
+	 * Index of the shape point of the decision point of each instruction in
+	 * <code>instructions</code>. The decision point of a global instruction
+	 * is the shape point of its landmark, which is located before the end of
+	 * its route segment.
 	 */
-	private Route route;
+	private List<Integer> instructionShapePoints;
 
 	/**
-	 * Instructions created by the InstructionManager
+	 * Index of the shape point of the decision point of the last
+	 * <code>GlobalInstruction</code> created by
+	 * <code>searchForLandmarkAlongRoute()</code>
 	 */
-	private List<Instruction> instructions;
+	private int landmarkShapePoint;
+
+	/**
+	 * Index of the first instruction in <code>instructions</code>. All
+	 * instructions before it have been passed and dropped.
+	 */
+	private int firstInstruction;
+
+	/**
+	 * Number of route segments ahead of the current instruction whose
+	 * instructions are created in advance. -1 if all instructions are created
+	 * and kept.
+	 */
+	private int lookAhead = -1;
 
 	/**
 	 * Store the current instruction. Default = 0
@@ -77,188 +98,136 @@ public class InstructionManager {
 	private boolean lastInstructionWasForRoundabout;
 
 	/**
-	 * Local landmarks to be used
+	 * The shared landmarks, street furniture and intersections
 	 */
-	private List<Landmark> localLandmarks;
+	private FeatureRepository repository;
 
 	/**
-	 * Global landmarks to be used
+	 * Landmarks, street furniture and intersections to be used
 	 */
-	private List<Landmark> globalLandmarks;
+	private FeatureStore features;
 
 	/**
-	 * Street furniture to be used
+	 * Spatial index of the features of each layer of the feature store
 	 */
-	private List<StreetFurniture> streetFurniture;
+	private SpatialIndex[] layers;
 
 	/**
-	 * Intersections to be used
+	 * Features along the route found by a single sweep over the shape points.
+	 * The sweep is extended together with the instructions.
 	 */
-	private List<GeoPoint> intersections;
+	private RouteCorridor corridor;
 
 	/**
-	 * Constructor of the InstructionManager class
-	 * 
-	 * @param guidance
-	 *            The guidance information in a JSON format
-	 * @param landmarks
-	 *            The landmarks from res/raw/landmarks.json
+	 * Marks for each street furniture in which search it has been counted
+	 * already
 	 */
-	public InstructionManager(JSONObject guidance, JSONObject landmarks,
-			JSONArray streetFurniture, JSONArray intersections) {
-		// Initialize the route
-		this.route = new Route(guidance);
-
-		// Check if the JSON import has been successful
-		this.importSuccessful = this.route.isImportSuccessful();
-
-		// Initialize the control variable for the roundabout instructions
-		this.lastInstructionWasForRoundabout = false;
+	private int[] streetFurnitureMarks;
 
-		// Initialize the landmarks
-		initLandmarks(landmarks);
+	/**
+	 * Marks for each intersection in which search it has been counted already
+	 */
+	private int[] intersectionMarks;
 
-		// Initialize the street furniture
-		initStreetFurniture(streetFurniture);
+	/**
+	 * Number of the current search to mark the counted street furniture and
+	 * intersections
+	 */
+	private int searchNumber;
 
-		// Initialize the intersections
-		initIntersections(intersections);
-	}
+	/**
+	 * Index of the next route segment whose instructions have to be created
+	 */
+	private int nextSegment;
 
 	/**
-	 * Initialize the landmarks
+	 * Constructor of the InstructionManager class
 	 * 
-	 * @param landmarks
-	 *            The landmarks from res/raw/landmarks.json
-	 */
-	private void initLandmarks(JSONObject landmarks) {
-		this.localLandmarks = new ArrayList<Landmark>();
-		this.globalLandmarks = new ArrayList<Landmark>();
-		try {
-			// Initialize all local landmarks
-			JSONArray local = landmarks.getJSONArray("local");
-			for (int i = 0; i < local.length(); i++) {
-				String title = ((JSONObject) local.get(i)).getString("title");
-				GeoPoint center = new GeoPoint(((JSONObject) local.get(i))
-						.getJSONObject("center").getDouble("lat"),
-						((JSONObject) local.get(i)).getJSONObject("center")
-								.getDouble("lng"));
-				int radius = ((JSONObject) local.get(i)).getInt("radius");
-				String category = ((JSONObject) local.get(i))
-						.getString("category");
-				this.localLandmarks.add(new Landmark(true, title, center,
-						radius, category));
-			}
-
-			// Initialize all global landmarks
-			JSONArray global = landmarks.getJSONArray("global");
-			for (int i = 0; i < global.length(); i++) {
-				String title = ((JSONObject) global.get(i)).getString("title");
-				GeoPoint center = new GeoPoint(((JSONObject) global.get(i))
-						.getJSONObject("center").getDouble("lat"),
-						((JSONObject) global.get(i)).getJSONObject("center")
-								.getDouble("lng"));
-				int radius = ((JSONObject) local.get(i)).getInt("radius");
-				String category = ((JSONObject) global.get(i))
-						.getString("category");
-				this.globalLandmarks.add(new Landmark(false, title, center,
-						radius, category));
-			}
-		} catch (JSONException e) {
-			// Error while parsing JSONObject
-			Log.e("InstructionManager",
-					"Error while parsing JSONObject to initialize the landmarks.");
-			this.importSuccessful = false;
-		}
+	 * @param route
+	 *            The route created from the guidance information
+	 * @param features
+	 *            The landmarks, street furniture and intersections. The
+	 *            repository is shared and not modified.
+	 */
+	public InstructionManager(Route route, FeatureRepository features) {
+		// Use the spatial indexes of the shared repository
+		this.repository = features;
+		this.features = features.getStore();
+		this.layers = features.getSpatialIndexes();
+		this.streetFurnitureMarks = new int[this.features
+				.size(FeatureStore.STREET_FURNITURE)];
+		this.intersectionMarks = new int[this.features
+				.size(FeatureStore.INTERSECTIONS)];
 
-		// Log the landmarks
-		for (int i = 0; i < this.localLandmarks.size(); i++) {
-			Log.v("InstructionManager.initLandmarks", "Local Landmark " + i
-					+ ": " + this.localLandmarks.get(i).toString());
-		}
-		for (int i = 0; i < this.globalLandmarks.size(); i++) {
-			Log.v("InstructionManager.initLandmarks", "Global Landmark " + i
-					+ ": " + this.globalLandmarks.get(i).toString());
-		}
+		// Initialize the route
+		setRoute(route);
 	}
 
 	/**
-	 * Initialize the street furniture
+	 * Replace the route (e.g. after a driving error). The landmarks, street
+	 * furniture and intersections are kept, so only the instructions of the
+	 * new route have to be created with <code>createInstructions()</code> or
+	 * <code>createNextInstructions()</code>.
 	 * 
-	 * @param streetFurniture
-	 *            The street furniture from res/raw/streetfurniture.json
-	 */
-	private void initStreetFurniture(JSONArray streetFurniture) {
-		this.streetFurniture = new ArrayList<StreetFurniture>();
-		try {
-			for (int i = 0; i < streetFurniture.length(); i++) {
-				GeoPoint center = new GeoPoint(streetFurniture.getJSONObject(i)
-						.getJSONObject("center").getDouble("lat"),
-						streetFurniture.getJSONObject(i)
-								.getJSONObject("center").getDouble("lng"));
-				String category = streetFurniture.getJSONObject(i).getString(
-						"category");
-				// Has the street furniture an individual radius of visual
-				// salience?
-				if (streetFurniture.getJSONObject(i).has("radius")) {
-					int radius = streetFurniture.getJSONObject(i).getInt(
-							"radius");
-					// Add a street furniture with individual radius
-					this.streetFurniture.add(new StreetFurniture(center,
-							category, radius));
-				} else {
-					// Add a street furniture with default radius
-					this.streetFurniture.add(new StreetFurniture(center,
-							category, MAX_DISTANCE_TO_STREET_FURNITURE));
-				}
-			}
-		} catch (JSONException e) {
-			// Error while parsing JSONArray
-			Log.e("InstructionManager",
-					"Error while parsing JSONArray to initialize the street furniture.");
-			this.importSuccessful = false;
-		}
+	 * @param route
+	 *            The new route
+	 */
+	public synchronized void setRoute(Route route) {
+		this.route = route;
+		this.instructions = new ArrayList<Instruction>();
+		this.instructionSegments = new ArrayList<Integer>();
+		this.instructionShapePoints = new ArrayList<Integer>();
+		this.firstInstruction = 0;
+		this.corridor = new RouteCorridor(route, this.layers);
+		this.nextSegment = 0;
+		this.currentInstruction = 0;
 
-		// Log the street furniture
-		for (int i = 0; i < this.streetFurniture.size(); i++) {
-			Log.v("InstructionManager.initStreetFurniture", "Street furniture "
-					+ i + ": " + this.streetFurniture.get(i).toString());
-		}
+		// Initialize the control variable for the roundabout instructions
+		this.lastInstructionWasForRoundabout = false;
 	}
 
 	/**
-	 * Initialize the intersections
+	 * Set the lazy mode. Only the instructions of a limited number of route
+	 * segments ahead of the current instruction are created in advance (see
+	 * <code>isLookAheadComplete()</code>) and passed instructions are
+	 * dropped. So the memory needed does not grow with the length of the
+	 * route.
 	 * 
-	 * @param intersections
-	 *            The intersections from res/raw/intersections.json
-	 */
-	private void initIntersections(JSONArray intersections) {
-		this.intersections = new ArrayList<GeoPoint>();
-		try {
-			for (int i = 0; i < intersections.length(); i++) {
-				this.intersections.add(new GeoPoint(((JSONObject) intersections
-						.get(i)).getDouble("lat"), ((JSONObject) intersections
-						.get(i)).getDouble("lng")));
-			}
-		} catch (JSONException e) {
-			// Error while parsing JSONArray
-			Log.e("InstructionManager",
-					"Error while parsing JSONArray to initialize the intersections.");
-			this.importSuccessful = false;
-		}
-
-		// Log the intersections
-		for (int i = 0; i < this.intersections.size(); i++) {
-			Log.v("InstructionManager.initIntersections", "Intersection " + i
-					+ ": " + this.intersections.get(i).toString());
-		}
+	 * @param segments
+	 *            Number of route segments ahead of the current instruction.
+	 *            -1 to create and keep all instructions (default).
+	 */
+	public synchronized void setLookAhead(int segments) {
+		this.lookAhead = segments;
+		dropPassedInstructions();
 	}
 
 	/**
 	 * @return Check if the JSON import has been successful
 	 */
 	public boolean isImportSuccessful() {
-		return this.importSuccessful;
+		return this.route.isImportSuccessful();
+	}
+
+	/**
+	 * Create a landmark of the feature store
+	 * 
+	 * @param layer
+	 *            The layer of the landmark (local or global landmarks)
+	 * @param index
+	 *            Index of the landmark in the layer
+	 * @return The landmark
+	 */
+	private Landmark createLandmark(int layer, int index) {
+		GeoPoint center = new GeoPoint(this.features.getLatitudeE6(layer,
+				index), this.features.getLongitudeE6(layer, index));
+		int category = this.features.getCategory(layer, index);
+		// An incorrect category will be set to null by the landmark
+		return new Landmark(layer == FeatureStore.LOCAL_LANDMARKS,
+				this.features.getTitle(layer, index), center,
+				this.features.getRadius(layer, index),
+				(category >= 0) ? LandmarkCategory.getCategories()[category]
+						: "");
 	}
 
 	/**
@@ -266,7 +235,7 @@ public class InstructionManager {
 	 * 
 	 * @return All shape points
 	 */
-	public GeoPoint[] getShapePoints() {
+	public List<GeoPoint> getShapePoints() {
 		return this.route.getShapePoints();
 	}
 
@@ -277,17 +246,39 @@ public class InstructionManager {
 	 * @return All verbal instructions
 	 */
 	public String[] getVerbalInstructions() {
-		String[] result = new String[this.instructions.size()];
+		// All instructions are required. In the lazy mode passed instructions
+		// have been dropped, so they are created separately. This is done
+		// without holding the lock, so the navigation is not blocked until
+		// all instructions have been created.
+		List<Instruction> all = null;
+		Route route;
+		FeatureRepository repository;
+		synchronized (this) {
+			if (this.lookAhead < 0) {
+				createAllInstructions();
+				all = new ArrayList<Instruction>(this.instructions);
+			}
+			route = this.route;
+			repository = this.repository;
+		}
+		if (all == null) {
+			InstructionManager manager = new InstructionManager(route,
+					repository);
+			manager.createAllInstructions();
+			all = manager.instructions;
+		}
+
+		String[] result = new String[all.size()];
 
 		for (int i = 0; i < result.length; i++) {
-			if (this.instructions.get(i).getClass() == de.mrunde.bachelorthesis.instructions.GlobalInstruction.class) {
-				result[i] = ((GlobalInstruction) this.instructions.get(i))
+			if (all.get(i).getClass() == de.mrunde.bachelorthesis.instructions.GlobalInstruction.class) {
+				result[i] = ((GlobalInstruction) all.get(i))
 						.toExtendedString();
-			} else if (this.instructions.get(i).getClass() == de.mrunde.bachelorthesis.instructions.LandmarkInstruction.class) {
-				result[i] = ((LandmarkInstruction) this.instructions.get(i))
+			} else if (all.get(i).getClass() == de.mrunde.bachelorthesis.instructions.LandmarkInstruction.class) {
+				result[i] = ((LandmarkInstruction) all.get(i))
 						.toExtendedString();
 			} else {
-				result[i] = this.instructions.get(i).toString();
+				result[i] = all.get(i).toString();
 			}
 		}
 
@@ -301,10 +292,13 @@ public class InstructionManager {
 	 *            Index of the instruction
 	 * @return The instruction
 	 */
-	public Instruction getInstruction(int index) {
-		if (this.instructions.get(index) != null) {
+	public synchronized Instruction getInstruction(int index) {
+		ensureInstruction(index);
+		Instruction instruction = get(index);
+		if (instruction != null) {
 			this.currentInstruction = index;
-			return this.instructions.get(index);
+			dropPassedInstructions();
+			return instruction;
 		} else {
 			Log.e("InstructionManager", "Could not get instruction at index "
 					+ index);
@@ -317,8 +311,9 @@ public class InstructionManager {
 	 * 
 	 * @return The current instruction
 	 */
-	public Instruction getCurrentInstruction() {
-		return this.instructions.get(this.currentInstruction);
+	public synchronized Instruction getCurrentInstruction() {
+		ensureInstruction(this.currentInstruction);
+		return get(this.currentInstruction);
 	}
 
 	/**
@@ -326,7 +321,7 @@ public class InstructionManager {
 	 * 
 	 * @return Now instruction of current instruction
 	 */
-	public NowInstruction getNowInstruction() {
+	public synchronized NowInstruction getNowInstruction() {
 		return new NowInstruction(this.getCurrentInstruction());
 	}
 
@@ -336,12 +331,14 @@ public class InstructionManager {
 	 * @return The next instruction. <code>Null</code> if last instruction has
 	 *         already been reached.
 	 */
-	public Instruction getNextInstruction() {
-		if (this.instructions.size() > this.currentInstruction + 1) {
+	public synchronized Instruction getNextInstruction() {
+		ensureInstruction(this.currentInstruction + 1);
+		if (getNumberOfInstructions() > this.currentInstruction + 1) {
 			// Increase the pointer
 			this.currentInstruction++;
+			dropPassedInstructions();
 			// Return the next instruction
-			return this.instructions.get(this.currentInstruction);
+			return get(this.currentInstruction);
 		} else {
 			// Return null when last instruction has already been reached
 			return null;
@@ -354,11 +351,11 @@ public class InstructionManager {
 	 * @return The location of the next instruction. <code>Null</code> if last
 	 *         instruction has already been reached.
 	 */
-	public GeoPoint getNextInstructionLocation() {
-		if (this.instructions.size() > this.currentInstruction + 1) {
+	public synchronized GeoPoint getNextInstructionLocation() {
+		ensureInstruction(this.currentInstruction + 1);
+		if (getNumberOfInstructions() > this.currentInstruction + 1) {
 			// Return the next instruction's decision point
-			return this.instructions.get(this.currentInstruction + 1)
-					.getDecisionPoint();
+			return get(this.currentInstruction + 1).getDecisionPoint();
 		} else {
 			// Return null when last instruction has already been reached
 			return null;
@@ -366,66 +363,220 @@ public class InstructionManager {
 	}
 
 	/**
-	 * Create the instructions from the route information
+	 * @return Index of the current instruction
 	 */
-	public void createInstructions() {
-		this.instructions = new ArrayList<Instruction>();
-		int j = 0;
-		for (int i = 0; i < this.route.getNumberOfSegments(); i++) {
-			RouteSegment rs = this.route.getNextSegment();
-			Instruction[] instruction = createInstruction(rs.getEndPoint(),
-					rs.getStartPoint(), rs.getManeuverType(), rs.getDistance());
-
-			// The first instruction will be ignored, if it is of maneuver type
-			// STRAIGHT so the user gets immediately the required instruction
-			if (i == 0 && rs.getManeuverType() == Maneuver.STRAIGHT) {
-				instruction = null;
-			}
+	public synchronized int getCurrentInstructionIndex() {
+		return this.currentInstruction;
+	}
 
-			if (instruction != null) {
-				// Add the global instruction (if available)
-				if (instruction[0] != null) {
-					// Check if the global instruction does not use the same
-					// landmark as the landmark-based instruction
-					if (instruction[1].getClass() != LandmarkInstruction.class
-							|| (instruction[1].getClass() == LandmarkInstruction.class && !((GlobalInstruction) instruction[0])
-									.getGlobal()
-									.equals(((LandmarkInstruction) instruction[1])
-											.getLocal()))) {
-						this.instructions.add(instruction[0]);
-						// Log global instruction
-						Log.v("InstructionManager.createInstructions",
-								"(Global) Instruction "
-										+ j
-										+ ": "
-										+ this.instructions.get(j).toString()
-										+ " | "
-										+ this.instructions.get(j)
-												.getDecisionPoint().toString());
-						j++;
-					}
-				}
-				// Remove "no-turn" instructions by ignoring them
-				if (instruction[1].toString() != null) {
-					this.instructions.add(instruction[1]);
-					// Log local instruction
+	/**
+	 * Get the along-route offset of the decision point of an instruction
+	 * 
+	 * @param index
+	 *            Index of the instruction
+	 * @return The along-route offset of the decision point in meters. -1 if
+	 *         the instruction does not exist or has been dropped.
+	 */
+	public synchronized double getDecisionPointOffset(int index) {
+		ensureInstruction(index);
+		if (index < this.firstInstruction
+				|| index >= getNumberOfInstructions()) {
+			return -1;
+		}
+		return this.route.getOffset(this.instructionShapePoints.get(index
+				- this.firstInstruction));
+	}
+
+	/**
+	 * @return The number of instructions created so far (including the
+	 *         dropped ones)
+	 */
+	public synchronized int getNumberOfInstructions() {
+		return this.firstInstruction + this.instructions.size();
+	}
+
+	/**
+	 * @param index
+	 *            Index of the instruction
+	 * @return The instruction. <code>null</code> if it has been dropped or
+	 *         not been created yet.
+	 */
+	private Instruction get(int index) {
+		if (index < this.firstInstruction
+				|| index >= getNumberOfInstructions()) {
+			return null;
+		}
+		return this.instructions.get(index - this.firstInstruction);
+	}
+
+	/**
+	 * Drop the instructions before the current one in the lazy mode
+	 */
+	private void dropPassedInstructions() {
+		if (this.lookAhead < 0) {
+			return;
+		}
+		while (this.firstInstruction < this.currentInstruction
+				&& !this.instructions.isEmpty()) {
+			this.instructions.remove(0);
+			this.instructionSegments.remove(0);
+			this.instructionShapePoints.remove(0);
+			this.firstInstruction++;
+		}
+	}
+
+	/**
+	 * @return <code>TRUE</code>: The instructions of all route segments have
+	 *         been created<br/>
+	 *         <code>FALSE</code>: Some route segments are still missing
+	 */
+	public synchronized boolean isComplete() {
+		return this.nextSegment >= this.route.getNumberOfSegments();
+	}
+
+	/**
+	 * Check if the instructions have been created far enough ahead of the
+	 * current instruction. In the lazy mode the instructions are created up
+	 * to the given number of route segments ahead (see
+	 * <code>setLookAhead()</code>). Otherwise all instructions are created.
+	 * 
+	 * @return <code>TRUE</code>: No more instructions have to be created at
+	 *         the moment<br/>
+	 *         <code>FALSE</code>: <code>createNextInstructions()</code> should
+	 *         be called
+	 */
+	public synchronized boolean isLookAheadComplete() {
+		if (isComplete()) {
+			return true;
+		}
+		if (this.lookAhead < 0) {
+			return false;
+		}
+		// Segment of the current instruction (the next segment if it has not
+		// been created yet)
+		int currentSegment = this.nextSegment;
+		if (this.currentInstruction >= this.firstInstruction
+				&& this.currentInstruction < getNumberOfInstructions()) {
+			currentSegment = this.instructionSegments
+					.get(this.currentInstruction - this.firstInstruction);
+		}
+		return this.nextSegment > currentSegment + this.lookAhead;
+	}
+
+	/**
+	 * Create the instructions ahead of the current instruction. In the lazy
+	 * mode only the instructions up to the look-ahead (see
+	 * <code>setLookAhead()</code>) are created, so neither the time nor the
+	 * memory needed grow with the length of the route. Otherwise the
+	 * instructions of all remaining route segments are created.
+	 */
+	public synchronized void createInstructions() {
+		while (!isLookAheadComplete() && createNextInstructions()) {
+			// Continue with the next route segment
+		}
+	}
+
+	/**
+	 * Create the instructions of all remaining route segments regardless of
+	 * the look-ahead
+	 */
+	private void createAllInstructions() {
+		while (createNextInstructions()) {
+			// Continue with the next route segment
+		}
+	}
+
+	/**
+	 * Create the instructions until the instruction at the given index is
+	 * available or all route segments have been processed. So an instruction
+	 * that is needed by the navigation is created immediately even if the
+	 * background creation has not reached it yet.
+	 * 
+	 * @param index
+	 *            Index of the required instruction
+	 */
+	private void ensureInstruction(int index) {
+		while (getNumberOfInstructions() <= index && createNextInstructions()) {
+			// Continue with the next route segment
+		}
+	}
+
+	/**
+	 * Create the instructions of the next route segment. The route corridor
+	 * is only swept up to the end of this segment, so the time needed does
+	 * not depend on the length of the route.<br/>
+	 * <br/>
+	 * The instructions can be created step by step in the background while
+	 * the navigation reads the ones already created.
+	 * 
+	 * @return <code>TRUE</code>: A route segment has been processed<br/>
+	 *         <code>FALSE</code>: All route segments had been processed
+	 *         already
+	 */
+	public synchronized boolean createNextInstructions() {
+		if (isComplete()) {
+			return false;
+		}
+		int i = this.nextSegment++;
+		RouteSegment rs = this.route.getSegment(i);
+
+		// Find the features along the route up to the decision point
+		this.corridor.sweepTo(rs.getEndIndex());
+
+		Instruction[] instruction = createInstruction(rs.getEndPoint(),
+				rs.getEndIndex(), rs.getStartIndex(), rs.getManeuverType(),
+				rs.getDistance());
+
+		// The first instruction will be ignored, if it is of maneuver type
+		// STRAIGHT so the user gets immediately the required instruction
+		if (i == 0 && rs.getManeuverType() == Maneuver.STRAIGHT) {
+			instruction = null;
+		}
+
+		if (instruction != null) {
+			// Add the global instruction (if available)
+			if (instruction[0] != null) {
+				// Check if the global instruction does not use the same
+				// landmark as the landmark-based instruction
+				if (instruction[1].getClass() != LandmarkInstruction.class
+						|| (instruction[1].getClass() == LandmarkInstruction.class && !((GlobalInstruction) instruction[0])
+								.getGlobal()
+								.equals(((LandmarkInstruction) instruction[1])
+										.getLocal()))) {
+					this.instructions.add(instruction[0]);
+					this.instructionSegments.add(i);
+					this.instructionShapePoints.add(this.landmarkShapePoint);
+					// Log global instruction
 					Log.v("InstructionManager.createInstructions",
-							"(Local) Instruction "
-									+ j
+							"(Global) Instruction "
+									+ (getNumberOfInstructions() - 1)
 									+ ": "
-									+ this.instructions.get(j).toString()
-									+ " | Maneuver Type: "
-									+ this.instructions.get(j)
-											.getManeuverType()
+									+ instruction[0].toString()
 									+ " | "
-									+ this.instructions.get(j)
-											.getDecisionPoint().toString()
-									+ " | Instruction Type: "
-									+ this.instructions.get(j).getClass());
-					j++;
+									+ instruction[0].getDecisionPoint()
+											.toString());
 				}
 			}
+			// Remove "no-turn" instructions by ignoring them
+			if (instruction[1].toString() != null) {
+				this.instructions.add(instruction[1]);
+				this.instructionSegments.add(i);
+				this.instructionShapePoints.add(rs.getEndIndex());
+				// Log local instruction
+				Log.v("InstructionManager.createInstructions",
+						"(Local) Instruction "
+								+ (getNumberOfInstructions() - 1)
+								+ ": "
+								+ instruction[1].toString()
+								+ " | Maneuver Type: "
+								+ instruction[1].getManeuverType()
+								+ " | "
+								+ instruction[1].getDecisionPoint().toString()
+								+ " | Instruction Type: "
+								+ instruction[1].getClass());
+			}
 		}
+		return true;
 	}
 
 	/**
@@ -444,9 +595,11 @@ public class InstructionManager {
 	 * 
 	 * @param decisionPoint
 	 *            Decision point where the maneuver has to be done
-	 * @param previousDecisionPoint
-	 *            Previous decision point. <code>Null</code> if first
-	 *            instruction. Used to find global landmarks
+	 * @param indexCurrent
+	 *            Index of the decision point in the shape points
+	 * @param indexPrevious
+	 *            Index of the previous decision point in the shape points. 0
+	 *            if first instruction. Used to find global landmarks
 	 * @param maneuverType
 	 *            The maneuver type
 	 * @param distance
@@ -459,7 +612,7 @@ public class InstructionManager {
 	 *         <code>null</code> will be returned.
 	 */
 	private Instruction[] createInstruction(GeoPoint decisionPoint,
-			GeoPoint previousDecisionPoint, Integer maneuverType,
+			int indexCurrent, int indexPrevious, Integer maneuverType,
 			Integer distance) {
 		if (this.lastInstructionWasForRoundabout) {
 			this.lastInstructionWasForRoundabout = false;
@@ -484,36 +637,34 @@ public class InstructionManager {
 				// Search for global landmark along the route and create the
 				// corresponding instruction
 				instruction[0] = searchForGlobalLandmarkAlongRoute(
-						decisionPoint, previousDecisionPoint);
+						indexCurrent, indexPrevious);
 				// Create a LandmarkAlongRouteInstruction if no global landmark
 				// could be
 				// found before
 				if (instruction[0] == null) {
 					instruction[0] = searchForLocalLandmarkAlongRoute(
-							decisionPoint, previousDecisionPoint);
+							indexCurrent, indexPrevious);
 				}
 
-				Landmark localLandmark;
+				int localLandmark;
 				String[] streetFurniture;
 				int intersections;
 
 				// Search for local landmark or street furniture to create
 				// instruction
-				if ((localLandmark = searchForLocalLandmark(decisionPoint)) != null) {
-					// Get the shape points from the route
-					GeoPoint[] shapePoints = this.route.getShapePoints();
-					// Find the shape points index of this local landmark
-					int indexDecisionPoint = searchDecisionPointIndex(
-							decisionPoint, shapePoints);
-
+				if ((localLandmark = searchForLocalLandmark(indexCurrent)) >= 0) {
 					// Create a LandmarkInstruction
 					instruction[1] = new LandmarkInstruction(decisionPoint,
-							maneuverType, localLandmark, isLeftTurn(
-									shapePoints[indexDecisionPoint - 1],
-									shapePoints[indexDecisionPoint],
-									localLandmark.getCenter()));
+							maneuverType, createLandmark(
+									RouteCorridor.LOCAL_LANDMARKS,
+									this.corridor.getFeature(
+											RouteCorridor.LOCAL_LANDMARKS,
+											localLandmark)),
+							this.corridor.isLeftSide(
+									RouteCorridor.LOCAL_LANDMARKS,
+									localLandmark));
 				} else if ((streetFurniture = searchForStreetFurniture(
-						decisionPoint, previousDecisionPoint)) != null) {
+						indexCurrent, indexPrevious)) != null) {
 					// Create a StreetFurnitureInstruction from one street
 					// furniture
 					instruction[1] = new StreetFurnitureInstruction(
@@ -527,7 +678,7 @@ public class InstructionManager {
 				// intersection crossing the last route segment
 				if (instruction[1] == null
 						&& (intersections = searchForIntersections(
-								decisionPoint, previousDecisionPoint)) > 0) {
+								indexCurrent, indexPrevious)) > 0) {
 					// Create an IntersectionInstruction
 					instruction[1] = new IntersectionInstruction(decisionPoint,
 							maneuverType, intersections);
@@ -548,49 +699,17 @@ public class InstructionManager {
 	 * that decision point. If this was successful, a
 	 * <code>GlobalInstruction</code> object will be created.
 	 * 
-	 * @param decisionPoint
-	 *            Decision point
-	 * @param previousDecisionPoint
-	 *            Previous decision point
+	 * @param indexCurrent
+	 *            Index of the decision point in the shape points
+	 * @param indexPrevious
+	 *            Index of the previous decision point in the shape points
 	 * @return <code>GlobalInstruction</code> object if available. Otherwise
 	 *         <code>null</code> will be returned.
 	 */
 	private GlobalInstruction searchForGlobalLandmarkAlongRoute(
-			GeoPoint decisionPoint, GeoPoint previousDecisionPoint) {
-		GlobalInstruction result = null;
-
-		// Get the shape points from the route
-		GeoPoint[] shapePoints = this.route.getShapePoints();
-
-		// Find the indexes of the current and the previous decision points
-		int indexCurrent = searchDecisionPointIndex(decisionPoint, shapePoints);
-		indexCurrent = indexCurrent - 2;
-		int indexPrevious = searchDecisionPointIndex(previousDecisionPoint,
-				shapePoints);
-
-		// Iterate through all shape points that lay between the current and
-		// the previous decision points beginning with the first of this segment
-		for (int i = indexPrevious + 2; i <= indexCurrent; i++) {
-			org.osmdroid.util.GeoPoint currentShapePoint = new org.osmdroid.util.GeoPoint(
-					shapePoints[i].getLatitude(), shapePoints[i].getLongitude());
-
-			for (int j = 0; j < this.globalLandmarks.size(); j++) {
-				// Get the landmark location
-				org.osmdroid.util.GeoPoint currentLandmark = new org.osmdroid.util.GeoPoint(
-						this.globalLandmarks.get(j).getCenter().getLatitude(),
-						this.globalLandmarks.get(j).getCenter().getLongitude());
-
-				double distance = currentShapePoint.distanceTo(currentLandmark);
-				if (distance <= this.globalLandmarks.get(j).getRadius()) {
-					result = new GlobalInstruction(shapePoints[i],
-							this.globalLandmarks.get(j), isLeftTurn(
-									shapePoints[i], shapePoints[i - 1],
-									decisionPoint));
-					return result;
-				}
-			}
-		}
-		return result;
+			int indexCurrent, int indexPrevious) {
+		return searchForLandmarkAlongRoute(indexCurrent, indexPrevious,
+				RouteCorridor.GLOBAL_LANDMARKS);
 	}
 
 	/**
@@ -600,47 +719,58 @@ public class InstructionManager {
 	 * that decision point. If this was successful, a
 	 * <code>GlobalInstruction</code> object will be created.
 	 * 
-	 * @param decisionPoint
-	 *            Decision point
-	 * @param previousDecisionPoint
-	 *            Previous decision point
+	 * @param indexCurrent
+	 *            Index of the decision point in the shape points
+	 * @param indexPrevious
+	 *            Index of the previous decision point in the shape points
 	 * @return <code>GlobalInstruction</code> object if available. Otherwise
 	 *         <code>null</code> will be returned.
 	 */
 	private GlobalInstruction searchForLocalLandmarkAlongRoute(
-			GeoPoint decisionPoint, GeoPoint previousDecisionPoint) {
-		GlobalInstruction result = null;
-
-		// Get the shape points from the route
-		GeoPoint[] shapePoints = this.route.getShapePoints();
+			int indexCurrent, int indexPrevious) {
+		return searchForLandmarkAlongRoute(indexCurrent, indexPrevious,
+				RouteCorridor.LOCAL_LANDMARKS);
+	}
 
-		// Find the indexes of the current and the previous decision points
-		int indexCurrent = searchDecisionPointIndex(decisionPoint, shapePoints);
-		indexCurrent = indexCurrent - 2;
-		int indexPrevious = searchDecisionPointIndex(previousDecisionPoint,
-				shapePoints);
+	/**
+	 * Search for a landmark along the route between the two given locations.
+	 * At each shape point the landmark with the lowest index in its layer is
+	 * used whose radius of visibility contains the shape point.
+	 * 
+	 * @param indexCurrent
+	 *            Index of the decision point in the shape points
+	 * @param indexPrevious
+	 *            Index of the previous decision point in the shape points
+	 * @param layer
+	 *            The layer of the landmarks in the route corridor
+	 * @return <code>GlobalInstruction</code> object if available. Otherwise
+	 *         <code>null</code> will be returned.
+	 */
+	private GlobalInstruction searchForLandmarkAlongRoute(int indexCurrent,
+			int indexPrevious, int layer) {
+		GlobalInstruction result = null;
 
 		// Iterate through all shape points that lay between the current and
 		// the previous decision points beginning with the first of this segment
-		for (int i = indexPrevious + 2; i <= indexCurrent; i++) {
-			org.osmdroid.util.GeoPoint currentShapePoint = new org.osmdroid.util.GeoPoint(
-					shapePoints[i].getLatitude(), shapePoints[i].getLongitude());
-
-			for (int j = 0; j < this.localLandmarks.size(); j++) {
-				// Get the landmark location
-				org.osmdroid.util.GeoPoint currentLandmark = new org.osmdroid.util.GeoPoint(
-						this.localLandmarks.get(j).getCenter().getLatitude(),
-						this.localLandmarks.get(j).getCenter().getLongitude());
-
-				double distance = currentShapePoint.distanceTo(currentLandmark);
-				if (distance <= this.localLandmarks.get(j).getRadius()) {
-					result = new GlobalInstruction(shapePoints[i],
-							this.localLandmarks.get(j), isLeftTurn(
-									shapePoints[i], shapePoints[i - 1],
-									decisionPoint));
-					return result;
+		for (int i = indexPrevious + 2; i <= indexCurrent - 2; i++) {
+			int end = this.corridor.getFirst(layer, i + 1);
+			int first = -1;
+			for (int entry = this.corridor.getFirst(layer, i); entry < end; entry++) {
+				// Use the landmark with the lowest index
+				if (first < 0
+						|| this.corridor.getFeature(layer, entry) < this.corridor
+								.getFeature(layer, first)) {
+					first = entry;
 				}
 			}
+			if (first >= 0) {
+				result = new GlobalInstruction(this.route.getShapePoint(i),
+						createLandmark(layer,
+								this.corridor.getFeature(layer, first)),
+						this.corridor.isLeftSide(layer, first));
+				this.landmarkShapePoint = i;
+				return result;
+			}
 		}
 		return result;
 	}
@@ -648,30 +778,25 @@ public class InstructionManager {
 	/**
 	 * Search for a local landmark close to the given location
 	 * 
-	 * @param decisionPoint
-	 *            Decision point
-	 * @return <code>Landmark</code> object if available. Otherwise
-	 *         <code>null</code> will be returned.
+	 * @param indexCurrent
+	 *            Index of the decision point in the shape points
+	 * @return Position of the closest local landmark in the route corridor if
+	 *         available. Otherwise -1 will be returned.
 	 */
-	private Landmark searchForLocalLandmark(GeoPoint decisionPoint) {
-		Landmark result = null;
+	private int searchForLocalLandmark(int indexCurrent) {
+		int result = -1;
 
 		double minDistance = Double.MAX_VALUE;
 
-		org.osmdroid.util.GeoPoint decisionPointFromOsmdroid = new org.osmdroid.util.GeoPoint(
-				decisionPoint.getLatitude(), decisionPoint.getLongitude());
-
-		for (int i = 0; i < this.localLandmarks.size(); i++) {
-			org.osmdroid.util.GeoPoint currentLandmark = new org.osmdroid.util.GeoPoint(
-					this.localLandmarks.get(i).getCenter().getLatitude(),
-					this.localLandmarks.get(i).getCenter().getLongitude());
-			double distance = decisionPointFromOsmdroid
-					.distanceTo(currentLandmark);
-			if (distance <= this.localLandmarks.get(i).getRadius()
-					&& distance <= minDistance) {
+		// Use the closest landmark whose radius of visibility contains the
+		// decision point
+		int layer = RouteCorridor.LOCAL_LANDMARKS;
+		int end = this.corridor.getFirst(layer, indexCurrent + 1);
+		for (int entry = this.corridor.getFirst(layer, indexCurrent); entry < end; entry++) {
+			double distance = this.corridor.getDistance(layer, entry);
+			if (distance < minDistance) {
 				minDistance = distance;
-				result = this.localLandmarks.get(i);
-				return result;
+				result = entry;
 			}
 		}
 
@@ -681,65 +806,44 @@ public class InstructionManager {
 	/**
 	 * Search for a street furniture on this route segment
 	 * 
-	 * @param decisionPoint
-	 *            Decision point
-	 * @param previousDecisionPoint
-	 *            Previous decision point
+	 * @param indexCurrent
+	 *            Index of the decision point in the shape points
+	 * @param indexPrevious
+	 *            Index of the previous decision point in the shape points
 	 * @return Number of street furniture and index of the street furniture
 	 *         category
 	 */
-	private String[] searchForStreetFurniture(GeoPoint decisionPoint,
-			GeoPoint previousDecisionPoint) {
+	private String[] searchForStreetFurniture(int indexCurrent,
+			int indexPrevious) {
 		// Street furniture categories
 		String[] categories = StreetFurnitureCategory.getCategories();
 		// Number of the found street furniture for each category
 		int[] numberOfStreetFurniture = new int[categories.length];
-		for (int temp = 0; temp < numberOfStreetFurniture.length; temp++) {
-			numberOfStreetFurniture[temp] = 0;
-		}
 		// Index of the shape point of the last street furniture for each
 		// category
 		int[] indexLastStreetFurniture = new int[categories.length];
 
-		// Get the shape points from the route
-		GeoPoint[] shapePoints = this.route.getShapePoints();
-
-		// Find the indexes of the current and the previous decision points
-		int indexCurrent = searchDecisionPointIndex(decisionPoint, shapePoints);
-		int indexPrevious = searchDecisionPointIndex(previousDecisionPoint,
-				shapePoints);
-
-		for (int i = 0; i < this.streetFurniture.size(); i++) {
-			// Get the street furniture category and store its index
-			int indexCategory = 0;
-			StreetFurniture currentStreetFurniture = this.streetFurniture
-					.get(i);
-			while (!categories[indexCategory].replace("_", " ").equals(
-					currentStreetFurniture.getCategory())) {
-				indexCategory++;
-			}
-			// Get the street furniture location
-			org.osmdroid.util.GeoPoint streetFurnitureGeoPoint = new org.osmdroid.util.GeoPoint(
-					currentStreetFurniture.getCenter().getLatitude(),
-					currentStreetFurniture.getCenter().getLongitude());
-
-			// Iterate through all shape points that lay between the current and
-			// the previous decision points
-			for (int j = indexCurrent; j > indexPrevious + 1; j--) {
-				org.osmdroid.util.GeoPoint currentShapePoint = new org.osmdroid.util.GeoPoint(
-						shapePoints[j].getLatitude(),
-						shapePoints[j].getLongitude());
-
-				double distance = currentShapePoint
-						.distanceTo(streetFurnitureGeoPoint);
-				if (distance <= this.streetFurniture.get(i).getRadius()) {
-					if (numberOfStreetFurniture[indexCategory] == 0) {
-						// Store the index of the shape point
-						indexLastStreetFurniture[indexCategory] = j;
-					}
-					numberOfStreetFurniture[indexCategory]++;
-					break;
+		// Iterate through all shape points that lay between the current and
+		// the previous decision points beginning with the decision point, so
+		// that each street furniture is counted at the shape point closest to
+		// the decision point
+		int layer = RouteCorridor.STREET_FURNITURE;
+		this.searchNumber++;
+		for (int j = indexCurrent; j > indexPrevious + 1; j--) {
+			int end = this.corridor.getFirst(layer, j + 1);
+			for (int entry = this.corridor.getFirst(layer, j); entry < end; entry++) {
+				int feature = this.corridor.getFeature(layer, entry);
+				int indexCategory = this.features.getCategory(layer, feature);
+				if (indexCategory < 0
+						|| this.streetFurnitureMarks[feature] == this.searchNumber) {
+					continue;
+				}
+				this.streetFurnitureMarks[feature] = this.searchNumber;
+				if (numberOfStreetFurniture[indexCategory] == 0) {
+					// Store the index of the shape point
+					indexLastStreetFurniture[indexCategory] = j;
 				}
+				numberOfStreetFurniture[indexCategory]++;
 			}
 		}
 
@@ -763,8 +867,8 @@ public class InstructionManager {
 
 				// Check if any intersections lay between the last street
 				// furniture and current decision point
-				if (searchForIntersections(decisionPoint,
-						shapePoints[indexLastStreetFurniture[k]]) > 0) {
+				if (searchForIntersections(indexCurrent,
+						indexLastStreetFurniture[k]) > 0) {
 					result = null;
 				} else {
 					break;
@@ -778,42 +882,26 @@ public class InstructionManager {
 	/**
 	 * Search for intersections on this route segment
 	 * 
-	 * @param decisionPoint
-	 *            Decision point
-	 * @param previousDecisionPoint
-	 *            Previous decision point
+	 * @param indexCurrent
+	 *            Index of the decision point in the shape points
+	 * @param indexPrevious
+	 *            Index of the previous decision point in the shape points
 	 * @return Number of intersections
 	 */
-	private int searchForIntersections(GeoPoint decisionPoint,
-			GeoPoint previousDecisionPoint) {
+	private int searchForIntersections(int indexCurrent, int indexPrevious) {
 		int result = 0;
 
-		// Get the shape points from the route
-		GeoPoint[] shapePoints = this.route.getShapePoints();
-
-		// Find the indexes of the current and the previous decision points
-		int indexCurrent = searchDecisionPointIndex(decisionPoint, shapePoints);
-		int indexPrevious = searchDecisionPointIndex(previousDecisionPoint,
-				shapePoints);
-
-		for (int i = 0; i < this.intersections.size(); i++) {
-			// Get the intersection location
-			org.osmdroid.util.GeoPoint intersectionGeoPoint = new org.osmdroid.util.GeoPoint(
-					this.intersections.get(i).getLatitude(), this.intersections
-							.get(i).getLongitude());
-
-			// Iterate through all shape points that lay between the current and
-			// the previous decision points
-			for (int j = indexCurrent; j > indexPrevious; j--) {
-				org.osmdroid.util.GeoPoint currentShapePoint = new org.osmdroid.util.GeoPoint(
-						shapePoints[j].getLatitude(),
-						shapePoints[j].getLongitude());
-
-				double distance = currentShapePoint
-						.distanceTo(intersectionGeoPoint);
-				if (distance <= this.MAX_DISTANCE_TO_INTERSECTION) {
+		// Iterate through all shape points that lay between the current and
+		// the previous decision points and count each intersection once
+		int layer = RouteCorridor.INTERSECTIONS;
+		this.searchNumber++;
+		for (int j = indexCurrent; j > indexPrevious; j--) {
+			int end = this.corridor.getFirst(layer, j + 1);
+			for (int entry = this.corridor.getFirst(layer, j); entry < end; entry++) {
+				int feature = this.corridor.getFeature(layer, entry);
+				if (this.intersectionMarks[feature] != this.searchNumber) {
+					this.intersectionMarks[feature] = this.searchNumber;
 					result++;
-					break;
 				}
 			}
 
@@ -827,63 +915,4 @@ public class InstructionManager {
 
 		return result;
 	}
-
-	/**
-	 * Search the index of the given decision point
-	 * 
-	 * @param decisionPoint
-	 *            The decision point
-	 * @param shapePoints
-	 *            The shape points that create the route
-	 * @return Index of the decision point. -1 if decision point could not be
-	 *         found or is <code>null</code>
-	 */
-	private int searchDecisionPointIndex(GeoPoint decisionPoint,
-			GeoPoint[] shapePoints) {
-		int index = -1;
-
-		if (decisionPoint == null) {
-			// If the decision point is null it seems to be the first
-			// instruction being created
-			index = 0;
-		} else {
-			// Iterate through all shape points until the correct one has been
-			// found
-			for (int i = 0; i < shapePoints.length; i++) {
-				if (decisionPoint.equals(shapePoints[i])) {
-					index = i;
-					break;
-				}
-			}
-		}
-		return index;
-	}
-
-	/**
-	 * Algorithm to calculate whether the triangle of three points perform a
-	 * left turn or a right turn. This is done to find out whether a landmark is
-	 * on the right or left side from the user's perspective
-	 * 
-	 * @param p1
-	 *            Previous shape point
-	 * @param p2
-	 *            Current shape point
-	 * @param p3
-	 *            Landmark
-	 * @return <code>TRUE</code>: left turn<br/>
-	 *         <code>FALSE</code>: right turn
-	 */
-	private boolean isLeftTurn(GeoPoint p1, GeoPoint p2, GeoPoint p3) {
-		double result = (p2.getLongitude() - p1.getLongitude())
-				* (p3.getLatitude() - p1.getLatitude())
-				- (p2.getLatitude() - p1.getLatitude())
-				* (p3.getLongitude() - p1.getLongitude());
-		if (result > 0) {
-			// Left turn
-			return true;
-		} else {
-			// Right turn
-			return false;
-		}
-	}
 }
@@ -0,0 +1,282 @@
+package de.mrunde.bachelorthesis.instructions;
+
+import de.mrunde.bachelorthesis.basics.GeoDistance;
+import de.mrunde.bachelorthesis.basics.Route;
+import de.mrunde.bachelorthesis.basics.SpatialIndex;
+import de.mrunde.bachelorthesis.data.FeatureStore;
+
+/**
+ * The RouteCorridor is created by sweeping once along the shape points of a
+ * route. For each shape point it stores which features (landmarks, street
+ * furniture or intersections) are visible from there, how far away they are
+ * and on which side of the route they lay. The InstructionManager answers all
+ * of its searches as range lookups on these tables instead of testing every
+ * feature again for every decision point. The sweep is extended on demand
+ * (see <code>sweepTo()</code>), so only the part of the route whose
+ * instructions have been created is swept.<br/>
+ * <br/>
+ * The features of each layer are stored in one table sorted by the shape
+ * points. The entries of shape point <code>i</code> in a layer are the ones
+ * from <code>getFirst(layer, i)</code> (inclusive) to
+ * <code>getFirst(layer, i + 1)</code> (exclusive). All features of shape point
+ * <code>i</code> are passed at its along-route offset
+ * (<code>Route.getOffset(i)</code>).
+ * 
+ * @author Marius Runde
+ */
+public class RouteCorridor {
+
+	/**
+	 * Layer of the local landmarks
+	 */
+	public static final int LOCAL_LANDMARKS = FeatureStore.LOCAL_LANDMARKS;
+
+	/**
+	 * Layer of the global landmarks
+	 */
+	public static final int GLOBAL_LANDMARKS = FeatureStore.GLOBAL_LANDMARKS;
+
+	/**
+	 * Layer of the street furniture
+	 */
+	public static final int STREET_FURNITURE = FeatureStore.STREET_FURNITURE;
+
+	/**
+	 * Layer of the intersections
+	 */
+	public static final int INTERSECTIONS = FeatureStore.INTERSECTIONS;
+
+	/**
+	 * Number of layers
+	 */
+	private static final int NUMBER_OF_LAYERS = FeatureStore.NUMBER_OF_LAYERS;
+
+	/**
+	 * The route
+	 */
+	private Route route;
+
+	/**
+	 * The spatial indexes of the features of each layer
+	 */
+	private SpatialIndex[] layers;
+
+	/**
+	 * Position of the first entry of each shape point in the tables of each
+	 * layer. The element after the last swept shape point marks the end of
+	 * the table.
+	 */
+	private int[][] firstEntries;
+
+	/**
+	 * Indexes of the visible features in their spatial index for each layer
+	 */
+	private int[][] features;
+
+	/**
+	 * Distances between the shape points and the visible features in meters
+	 * for each layer
+	 */
+	private float[][] distances;
+
+	/**
+	 * Side of the visible features from the user's perspective for each layer
+	 * (<code>TRUE</code>: left, <code>FALSE</code>: right)
+	 */
+	private boolean[][] leftSides;
+
+	/**
+	 * Number of entries in the table of each layer
+	 */
+	private int[] sizes = new int[NUMBER_OF_LAYERS];
+
+	/**
+	 * Number of shape points whose features have been found already
+	 */
+	private int numberOfSweptShapePoints;
+
+	/**
+	 * Buffer for the results of the spatial indexes
+	 */
+	private int[] found = new int[16];
+
+	/**
+	 * Constructor of the RouteCorridor class. No shape point is swept yet
+	 * (see <code>sweepTo()</code>), so the corridor is created in constant
+	 * time.
+	 * 
+	 * @param route
+	 *            The route
+	 * @param layers
+	 *            The spatial indexes of the features of each layer (ordered by
+	 *            the layer constants of this class)
+	 */
+	public RouteCorridor(Route route, SpatialIndex[] layers) {
+		this.route = route;
+		this.layers = layers;
+		this.firstEntries = new int[NUMBER_OF_LAYERS][route
+				.getNumberOfShapePoints() + 1];
+		this.features = new int[NUMBER_OF_LAYERS][16];
+		this.distances = new float[NUMBER_OF_LAYERS][16];
+		this.leftSides = new boolean[NUMBER_OF_LAYERS][16];
+	}
+
+	/**
+	 * Find the visible features of all shape points up to the given one.
+	 * Shape points that have been swept already are skipped, so the tables
+	 * can be extended along the route while the instructions are created.
+	 * 
+	 * @param shapePoint
+	 *            Index of the last shape point to be swept
+	 */
+	public void sweepTo(int shapePoint) {
+		int last = Math.min(shapePoint,
+				this.route.getNumberOfShapePoints() - 1);
+		while (this.numberOfSweptShapePoints <= last) {
+			sweep(this.numberOfSweptShapePoints);
+			this.numberOfSweptShapePoints++;
+		}
+	}
+
+	/**
+	 * @return The number of shape points whose features have been found
+	 *         already
+	 */
+	public int getNumberOfSweptShapePoints() {
+		return this.numberOfSweptShapePoints;
+	}
+
+	/**
+	 * Find the visible features of a shape point and append them to the
+	 * tables
+	 * 
+	 * @param i
+	 *            Index of the shape point
+	 */
+	private void sweep(int i) {
+		double lat = this.route.getLatitude(i);
+		double lng = this.route.getLongitude(i);
+		double cos = GeoDistance.cosine(lat);
+
+		// Direction of the route at this shape point. The first shape point
+		// uses the direction to the second one.
+		int from = (i > 0) ? i - 1 : 0;
+		int to = (i > 0) ? i : Math.min(1,
+				this.route.getNumberOfShapePoints() - 1);
+		double fromLat = this.route.getLatitude(from);
+		double fromLng = this.route.getLongitude(from);
+		double toLat = this.route.getLatitude(to);
+		double toLng = this.route.getLongitude(to);
+
+		for (int layer = 0; layer < NUMBER_OF_LAYERS; layer++) {
+			int size = this.sizes[layer];
+			this.firstEntries[layer][i] = size;
+			SpatialIndex index = this.layers[layer];
+			int count = index.queryVisible(lat, lng, cos, this.found);
+			if (count > this.found.length) {
+				this.found = new int[count];
+				count = index.queryVisible(lat, lng, cos, this.found);
+			}
+			ensureCapacity(layer, size + count);
+			for (int j = 0; j < count; j++) {
+				int entry = size + j;
+				int feature = this.found[j];
+				this.features[layer][entry] = feature;
+				this.distances[layer][entry] = (float) index.getDistance(
+						feature, lat, lng, cos);
+				this.leftSides[layer][entry] = isLeft(fromLat, fromLng, toLat,
+						toLng, index.getLatitude(feature),
+						index.getLongitude(feature));
+			}
+			this.sizes[layer] = size + count;
+			this.firstEntries[layer][i + 1] = this.sizes[layer];
+		}
+	}
+
+	/**
+	 * Enlarge the tables of a layer if necessary
+	 * 
+	 * @param layer
+	 *            The layer
+	 * @param capacity
+	 *            The required number of entries
+	 */
+	private void ensureCapacity(int layer, int capacity) {
+		int size = this.features[layer].length;
+		if (capacity > size) {
+			int length = Math.max(capacity, size * 2);
+			int[] newFeatures = new int[length];
+			float[] newDistances = new float[length];
+			boolean[] newLeftSides = new boolean[length];
+			System.arraycopy(this.features[layer], 0, newFeatures, 0, size);
+			System.arraycopy(this.distances[layer], 0, newDistances, 0, size);
+			System.arraycopy(this.leftSides[layer], 0, newLeftSides, 0, size);
+			this.features[layer] = newFeatures;
+			this.distances[layer] = newDistances;
+			this.leftSides[layer] = newLeftSides;
+		}
+	}
+
+	/**
+	 * Calculate whether the location (<code>lat</code>, <code>lng</code>) lays
+	 * on the left side of the line from the first to the second shape point
+	 * 
+	 * @return <code>TRUE</code>: left side<br/>
+	 *         <code>FALSE</code>: right side
+	 */
+	private static boolean isLeft(double fromLat, double fromLng,
+			double toLat, double toLng, double lat, double lng) {
+		return (toLng - fromLng) * (lat - fromLat) - (toLat - fromLat)
+				* (lng - fromLng) > 0;
+	}
+
+	/**
+	 * Get the position of the first entry of a shape point in the table of a
+	 * layer
+	 * 
+	 * @param layer
+	 *            The layer
+	 * @param shapePoint
+	 *            Index of the shape point. It must have been swept already or
+	 *            directly follow the last swept shape point to get the end of
+	 *            the table.
+	 * @return The position of the first entry
+	 */
+	public int getFirst(int layer, int shapePoint) {
+		return this.firstEntries[layer][shapePoint];
+	}
+
+	/**
+	 * @param layer
+	 *            The layer
+	 * @param entry
+	 *            Position of the entry in the table of the layer
+	 * @return The index of the feature in its spatial index
+	 */
+	public int getFeature(int layer, int entry) {
+		return this.features[layer][entry];
+	}
+
+	/**
+	 * @param layer
+	 *            The layer
+	 * @param entry
+	 *            Position of the entry in the table of the layer
+	 * @return The distance between the shape point and the feature in meters
+	 */
+	public float getDistance(int layer, int entry) {
+		return this.distances[layer][entry];
+	}
+
+	/**
+	 * @param layer
+	 *            The layer
+	 * @param entry
+	 *            Position of the entry in the table of the layer
+	 * @return Whether the feature is on the left (<code>TRUE</code>) or right
+	 *         (<code>FALSE</code>) from the user's perspective
+	 */
+	public boolean isLeftSide(int layer, int entry) {
+		return this.leftSides[layer][entry];
+	}
+}
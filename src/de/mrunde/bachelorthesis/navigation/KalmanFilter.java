@@ -0,0 +1,312 @@
+package de.mrunde.bachelorthesis.navigation;
+
+import de.mrunde.bachelorthesis.basics.GeoDistance;
+
+/**
+ * The KalmanFilter estimates the position and the velocity of the user with a
+ * Kalman filter of a constant velocity model. The position and the velocity
+ * are estimated in meters relative to the first location. The position of
+ * each location is weighted by its accuracy, and its speed and bearing (if
+ * known) are used as a measurement of the velocity.<br/>
+ * <br/>
+ * The movements to the east and to the north are filtered independently of
+ * each other, so each location takes a small and fixed number of operations.
+ * The locations are given as primitive values, so the filter does not depend
+ * on Android and its tuning can be checked with recorded traces (see
+ * tools/README.md).
+ * 
+ * @author Marius Runde
+ */
+public class KalmanFilter {
+
+	/**
+	 * Standard deviation of the acceleration of the user in meters per square
+	 * second
+	 */
+	private static final double ACCELERATION = 2;
+
+	/**
+	 * Accuracy of a location in meters that is used if the location provider
+	 * does not know it
+	 */
+	private static final double DEFAULT_ACCURACY = 20;
+
+	/**
+	 * Standard deviation of the speed and bearing measured by the location
+	 * provider as velocity in meters per second
+	 */
+	private static final double VELOCITY_ACCURACY = 1;
+
+	/**
+	 * Time in milliseconds between two locations after which the filter
+	 * starts again with the new location
+	 */
+	private static final long MAX_TIME_GAP = 10000;
+
+	/**
+	 * Minimum speed in meters per second at which the bearing is calculated
+	 * from the filtered velocity
+	 */
+	private static final double MIN_SPEED_FOR_BEARING = 0.5;
+
+	/**
+	 * The movement to the east
+	 */
+	private Axis east = new Axis();
+
+	/**
+	 * The movement to the north
+	 */
+	private Axis north = new Axis();
+
+	/**
+	 * Latitude of the origin of the coordinates in degrees
+	 */
+	private double originLat;
+
+	/**
+	 * Longitude of the origin of the coordinates in degrees
+	 */
+	private double originLng;
+
+	/**
+	 * Length of one degree longitude at the origin in meters
+	 */
+	private double metersPerDegreeLng;
+
+	/**
+	 * Time of the last location. -1 if the filter has no location yet.
+	 */
+	private long lastTime = -1;
+
+	/**
+	 * Correct the estimation with the position of a location
+	 * 
+	 * @param time
+	 *            Time of the location in milliseconds
+	 * @param lat
+	 *            Latitude of the location in degrees
+	 * @param lng
+	 *            Longitude of the location in degrees
+	 * @param accuracy
+	 *            Accuracy of the location in meters. <code>NaN</code> if it
+	 *            is not known.
+	 */
+	public void update(long time, double lat, double lng, double accuracy) {
+		if (Double.isNaN(accuracy) || accuracy <= 0) {
+			accuracy = DEFAULT_ACCURACY;
+		}
+
+		// Start again if there is no previous location or it is too old
+		if (this.lastTime < 0 || time - this.lastTime > MAX_TIME_GAP) {
+			this.originLat = lat;
+			this.originLng = lng;
+			this.metersPerDegreeLng = GeoDistance.METERS_PER_DEGREE
+					* GeoDistance.cosine(this.originLat);
+			this.east.init(0, accuracy);
+			this.north.init(0, accuracy);
+			this.lastTime = time;
+		} else {
+			// Locations that are not newer than the last one are only used
+			// as a measurement at the current time
+			if (time > this.lastTime) {
+				double dt = (time - this.lastTime) / 1000.0;
+				this.east.predict(dt);
+				this.north.predict(dt);
+				this.lastTime = time;
+			}
+			this.east.updatePosition(toX(lng), accuracy);
+			this.north.updatePosition(toY(lat), accuracy);
+		}
+	}
+
+	/**
+	 * Correct the estimation with the speed and the bearing of the last
+	 * location
+	 * 
+	 * @param speed
+	 *            The speed in meters per second
+	 * @param bearing
+	 *            The bearing in degrees
+	 */
+	public void updateVelocity(double speed, double bearing) {
+		if (this.lastTime < 0) {
+			return;
+		}
+		double radians = Math.toRadians(bearing);
+		this.east.updateVelocity(speed * Math.sin(radians), VELOCITY_ACCURACY);
+		this.north.updateVelocity(speed * Math.cos(radians), VELOCITY_ACCURACY);
+	}
+
+	/**
+	 * Forget the previous locations, so the next location is not smoothed
+	 * with them
+	 */
+	public void reset() {
+		this.lastTime = -1;
+	}
+
+	/**
+	 * @return The estimated latitude in degrees
+	 */
+	public double getLatitude() {
+		return this.originLat + this.north.position
+				/ GeoDistance.METERS_PER_DEGREE;
+	}
+
+	/**
+	 * @return The estimated longitude in degrees
+	 */
+	public double getLongitude() {
+		return this.originLng + this.east.position / this.metersPerDegreeLng;
+	}
+
+	/**
+	 * @return The estimated speed in meters per second
+	 */
+	public double getSpeed() {
+		return Math.sqrt(this.east.velocity * this.east.velocity
+				+ this.north.velocity * this.north.velocity);
+	}
+
+	/**
+	 * @return The estimated bearing in degrees. <code>NaN</code> if the user
+	 *         is too slow to estimate it.
+	 */
+	public double getBearing() {
+		if (getSpeed() < MIN_SPEED_FOR_BEARING) {
+			return Double.NaN;
+		}
+		return Math.toDegrees(Math.atan2(this.east.velocity,
+				this.north.velocity));
+	}
+
+	/**
+	 * Convert a longitude into meters to the east of the origin
+	 * 
+	 * @param lng
+	 *            The longitude in degrees
+	 * @return The distance to the east in meters
+	 */
+	private double toX(double lng) {
+		return (lng - this.originLng) * this.metersPerDegreeLng;
+	}
+
+	/**
+	 * Convert a latitude into meters to the north of the origin
+	 * 
+	 * @param lat
+	 *            The latitude in degrees
+	 * @return The distance to the north in meters
+	 */
+	private double toY(double lat) {
+		return (lat - this.originLat) * GeoDistance.METERS_PER_DEGREE;
+	}
+
+	/**
+	 * This is a class to filter the position and the velocity along one axis.
+	 * The covariance of both is stored in its three distinct values.
+	 * 
+	 * @author Marius Runde
+	 */
+	private static class Axis {
+
+		/**
+		 * Estimated position in meters
+		 */
+		private double position;
+
+		/**
+		 * Estimated velocity in meters per second
+		 */
+		private double velocity;
+
+		/**
+		 * Variance of the position
+		 */
+		private double p00;
+
+		/**
+		 * Covariance of the position and the velocity
+		 */
+		private double p01;
+
+		/**
+		 * Variance of the velocity
+		 */
+		private double p11;
+
+		/**
+		 * Start with a known position and an unknown velocity
+		 * 
+		 * @param position
+		 *            The position in meters
+		 * @param accuracy
+		 *            Standard deviation of the position in meters
+		 */
+		private void init(double position, double accuracy) {
+			this.position = position;
+			this.velocity = 0;
+			this.p00 = accuracy * accuracy;
+			this.p01 = 0;
+			// The user may move at any usual speed
+			this.p11 = 100;
+		}
+
+		/**
+		 * Predict the position and the velocity after some time
+		 * 
+		 * @param dt
+		 *            The time in seconds
+		 */
+		private void predict(double dt) {
+			double q = ACCELERATION * ACCELERATION;
+			double dt2 = dt * dt;
+			this.position += this.velocity * dt;
+			this.p00 += 2 * dt * this.p01 + dt2 * this.p11 + q * dt2 * dt2 / 4;
+			this.p01 += dt * this.p11 + q * dt2 * dt / 2;
+			this.p11 += q * dt2;
+		}
+
+		/**
+		 * Correct the estimation with a measured position
+		 * 
+		 * @param measurement
+		 *            The measured position in meters
+		 * @param accuracy
+		 *            Standard deviation of the measurement in meters
+		 */
+		private void updatePosition(double measurement, double accuracy) {
+			double s = this.p00 + accuracy * accuracy;
+			double k0 = this.p00 / s;
+			double k1 = this.p01 / s;
+			double residual = measurement - this.position;
+			this.position += k0 * residual;
+			this.velocity += k1 * residual;
+			this.p11 -= k1 * this.p01;
+			this.p01 *= 1 - k0;
+			this.p00 *= 1 - k0;
+		}
+
+		/**
+		 * Correct the estimation with a measured velocity
+		 * 
+		 * @param measurement
+		 *            The measured velocity in meters per second
+		 * @param accuracy
+		 *            Standard deviation of the measurement in meters per
+		 *            second
+		 */
+		private void updateVelocity(double measurement, double accuracy) {
+			double s = this.p11 + accuracy * accuracy;
+			double k0 = this.p01 / s;
+			double k1 = this.p11 / s;
+			double residual = measurement - this.velocity;
+			this.position += k0 * residual;
+			this.velocity += k1 * residual;
+			this.p00 -= k0 * this.p01;
+			this.p01 *= 1 - k1;
+			this.p11 *= 1 - k1;
+		}
+	}
+}
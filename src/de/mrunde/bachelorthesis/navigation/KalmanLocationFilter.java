@@ -0,0 +1,50 @@
+package de.mrunde.bachelorthesis.navigation;
+
+import android.location.Location;
+
+/**
+ * The KalmanLocationFilter smooths the locations of the user with the
+ * <code>KalmanFilter</code> of a constant velocity model. The position of each
+ * location is weighted by its accuracy, and its speed and bearing (if known)
+ * are used as a measurement of the velocity.
+ * 
+ * @author Marius Runde
+ */
+public class KalmanLocationFilter implements LocationFilter {
+
+	/**
+	 * The filter of the position and the velocity
+	 */
+	private KalmanFilter kalman = new KalmanFilter();
+
+	@Override
+	public Location filter(Location location) {
+		this.kalman.update(location.getTime(), location.getLatitude(),
+				location.getLongitude(),
+				location.hasAccuracy() ? location.getAccuracy() : Double.NaN);
+
+		// Use the speed and bearing as a measurement of the velocity
+		if (location.hasSpeed() && location.hasBearing()) {
+			this.kalman.updateVelocity(location.getSpeed(),
+					location.getBearing());
+		}
+
+		// Create the filtered location
+		Location filtered = new Location(location);
+		filtered.setLatitude(this.kalman.getLatitude());
+		filtered.setLongitude(this.kalman.getLongitude());
+		if (location.hasSpeed()) {
+			filtered.setSpeed((float) this.kalman.getSpeed());
+		}
+		double bearing = this.kalman.getBearing();
+		if (location.hasBearing() && !Double.isNaN(bearing)) {
+			filtered.setBearing((float) bearing);
+		}
+		return filtered;
+	}
+
+	@Override
+	public void reset() {
+		this.kalman.reset();
+	}
+}
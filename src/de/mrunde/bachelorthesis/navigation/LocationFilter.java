@@ -0,0 +1,29 @@
+package de.mrunde.bachelorthesis.navigation;
+
+import android.location.Location;
+
+/**
+ * A LocationFilter smooths the locations of the user before they are matched
+ * onto the route. It is called once for each location in the order of their
+ * arrival, so it may keep the state of the previous locations.
+ * 
+ * @author Marius Runde
+ */
+public interface LocationFilter {
+
+	/**
+	 * Filter a location
+	 * 
+	 * @param location
+	 *            The location received from the location provider. It is not
+	 *            changed.
+	 * @return The filtered location
+	 */
+	public Location filter(Location location);
+
+	/**
+	 * Forget the previous locations, so the next location is not smoothed
+	 * with them
+	 */
+	public void reset();
+}
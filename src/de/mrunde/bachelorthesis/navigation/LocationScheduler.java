@@ -0,0 +1,127 @@
+package de.mrunde.bachelorthesis.navigation;
+
+/**
+ * The LocationScheduler adapts the rate of the location updates to the
+ * distance along the route to the next decision point. Far away from the
+ * decision point the updates are requested rarely and only after a larger
+ * movement, so fewer locations have to be processed on long route segments.
+ * On approach the rate is raised again step by step.<br/>
+ * <br/>
+ * The steps are chosen by the time the user needs to reach the decision
+ * point. This time is at least 30 times the interval of its step, so the
+ * update rate is raised long before the now instruction has to be prompted.
+ * The speed of the user is never assumed to be slower than
+ * <code>MIN_SPEED</code>, so a slow or unknown speed leads to more frequent
+ * updates.
+ * 
+ * @author Marius Runde
+ */
+public class LocationScheduler {
+
+	/**
+	 * Minimum time in milliseconds between the location updates of each step
+	 * (starting with the fastest step)
+	 */
+	private static final long[] MIN_TIMES = { 500, 1000, 2000, 5000 };
+
+	/**
+	 * Minimum distance in meters between the location updates of each step
+	 */
+	private static final float[] MIN_DISTANCES = { 1, 5, 10, 25 };
+
+	/**
+	 * Time in seconds to reach the decision point from which on each step is
+	 * used
+	 */
+	private static final double[] MIN_TIMES_TO_DECISION_POINT = { 0, 30, 60,
+			180 };
+
+	/**
+	 * Factor by which the time to reach the decision point has to exceed the
+	 * limit of a slower step before it is used. So the step does not switch
+	 * back and forth at a limit.
+	 */
+	private static final double HYSTERESIS = 1.2;
+
+	/**
+	 * Speed in meters per second the user is assumed to move at least
+	 */
+	private static final double MIN_SPEED = 5;
+
+	/**
+	 * The current step. It is updated by the thread processing the locations
+	 * and read when the location updates are requested.
+	 */
+	private volatile int step = 0;
+
+	/**
+	 * Update the step by the distance to the next decision point
+	 * 
+	 * @param distance
+	 *            Distance along the route to the next decision point in
+	 *            meters
+	 * @param speed
+	 *            Speed of the user in meters per second. 0 if it is unknown.
+	 * @return <code>TRUE</code>: The step has changed and the location updates
+	 *         have to be requested again<br/>
+	 *         <code>FALSE</code>: The step has not changed
+	 */
+	public boolean update(double distance, float speed) {
+		double time = Math.max(distance, 0) / Math.max(speed, MIN_SPEED);
+
+		// Find the slowest step that can be used
+		int newStep = 0;
+		for (int i = MIN_TIMES_TO_DECISION_POINT.length - 1; i > 0; i--) {
+			double limit = MIN_TIMES_TO_DECISION_POINT[i];
+			if (i > this.step) {
+				limit *= HYSTERESIS;
+			}
+			if (time >= limit) {
+				newStep = i;
+				break;
+			}
+		}
+		return setStep(newStep);
+	}
+
+	/**
+	 * Use the fastest step, e.g. when the user is not on the route
+	 * 
+	 * @return <code>TRUE</code>: The step has changed and the location updates
+	 *         have to be requested again<br/>
+	 *         <code>FALSE</code>: The step has not changed
+	 */
+	public boolean reset() {
+		return setStep(0);
+	}
+
+	/**
+	 * @return The minimum time in milliseconds between the location updates
+	 */
+	public long getMinTime() {
+		return MIN_TIMES[this.step];
+	}
+
+	/**
+	 * @return The minimum distance in meters between the location updates
+	 */
+	public float getMinDistance() {
+		return MIN_DISTANCES[this.step];
+	}
+
+	/**
+	 * Set the current step
+	 * 
+	 * @param step
+	 *            The new step
+	 * @return <code>TRUE</code>: The step has changed<br/>
+	 *         <code>FALSE</code>: The step has not changed
+	 */
+	private boolean setStep(int step) {
+		if (step == this.step) {
+			return false;
+		}
+		this.step = step;
+		return true;
+	}
+}
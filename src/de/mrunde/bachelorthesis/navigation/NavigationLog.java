@@ -0,0 +1,180 @@
+package de.mrunde.bachelorthesis.navigation;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * The NavigationLog keeps the latest entries of the navigation (e.g. the
+ * along-route position of each location) to display them for debugging. It
+ * holds a fixed number of entries in a ring buffer: when it is full, the
+ * oldest entry is overwritten. The entries are stored in primitive arrays and
+ * only formatted when they are displayed or exported, so adding an entry
+ * takes constant time and creates no objects as long as the message is a
+ * constant.
+ * 
+ * @author Marius Runde
+ */
+public class NavigationLog {
+
+	/**
+	 * Time of each entry in milliseconds
+	 */
+	private long[] times;
+
+	/**
+	 * Message of each entry
+	 */
+	private String[] messages;
+
+	/**
+	 * First value of each entry. <code>NaN</code> if it is not used.
+	 */
+	private double[] values1;
+
+	/**
+	 * Second value of each entry. <code>NaN</code> if it is not used.
+	 */
+	private double[] values2;
+
+	/**
+	 * Position of the next entry in the arrays
+	 */
+	private int next;
+
+	/**
+	 * Number of stored entries
+	 */
+	private int size;
+
+	/**
+	 * Constructor of the NavigationLog class
+	 * 
+	 * @param capacity
+	 *            Maximum number of stored entries
+	 */
+	public NavigationLog(int capacity) {
+		this.times = new long[capacity];
+		this.messages = new String[capacity];
+		this.values1 = new double[capacity];
+		this.values2 = new double[capacity];
+	}
+
+	/**
+	 * Add an entry without values
+	 * 
+	 * @param time
+	 *            Time of the entry in milliseconds
+	 * @param message
+	 *            The message. It should be a constant, so no String has to be
+	 *            created.
+	 */
+	public void add(long time, String message) {
+		add(time, message, Double.NaN, Double.NaN);
+	}
+
+	/**
+	 * Add an entry. The oldest entry is overwritten if the log is full.
+	 * 
+	 * @param time
+	 *            Time of the entry in milliseconds
+	 * @param message
+	 *            The message. It should be a constant, so no String has to be
+	 *            created.
+	 * @param value1
+	 *            First value. <code>NaN</code> if it is not used.
+	 * @param value2
+	 *            Second value. <code>NaN</code> if it is not used.
+	 */
+	public synchronized void add(long time, String message, double value1,
+			double value2) {
+		this.times[this.next] = time;
+		this.messages[this.next] = message;
+		this.values1[this.next] = value1;
+		this.values2[this.next] = value2;
+		this.next = (this.next + 1) % this.times.length;
+		if (this.size < this.times.length) {
+			this.size++;
+		}
+	}
+
+	/**
+	 * @return The number of stored entries
+	 */
+	public synchronized int size() {
+		return this.size;
+	}
+
+	/**
+	 * Format all stored entries, e.g. to display them in a list
+	 * 
+	 * @return The entries from the oldest to the latest one
+	 */
+	public synchronized String[] toStrings() {
+		SimpleDateFormat format = createTimeFormat();
+		String[] result = new String[this.size];
+		for (int i = 0; i < this.size; i++) {
+			result[i] = format(getPosition(i), format);
+		}
+		return result;
+	}
+
+	/**
+	 * Write all stored entries line by line
+	 * 
+	 * @param out
+	 *            The writer to write to
+	 * @throws IOException
+	 *             If the entries could not be written
+	 */
+	public synchronized void writeTo(Writer out) throws IOException {
+		SimpleDateFormat format = createTimeFormat();
+		for (int i = 0; i < this.size; i++) {
+			out.write(format(getPosition(i), format));
+			out.write('\n');
+		}
+		out.flush();
+	}
+
+	/**
+	 * @param index
+	 *            Index of the entry (0 is the oldest one)
+	 * @return Position of the entry in the arrays
+	 */
+	private int getPosition(int index) {
+		int oldest = (this.next - this.size + this.times.length)
+				% this.times.length;
+		return (oldest + index) % this.times.length;
+	}
+
+	/**
+	 * Format an entry
+	 * 
+	 * @param position
+	 *            Position of the entry in the arrays
+	 * @param format
+	 *            Format of the time
+	 * @return The entry as a String
+	 */
+	private String format(int position, SimpleDateFormat format) {
+		StringBuilder entry = new StringBuilder();
+		entry.append(format.format(new Date(this.times[position])));
+		entry.append(' ').append(this.messages[position]);
+		if (!Double.isNaN(this.values1[position])) {
+			entry.append(" | ").append(this.values1[position]);
+		}
+		if (!Double.isNaN(this.values2[position])) {
+			entry.append(" | ").append(this.values2[position]);
+		}
+		return entry.toString();
+	}
+
+	/**
+	 * @return The format of the times of the entries
+	 */
+	private static SimpleDateFormat createTimeFormat() {
+		return new SimpleDateFormat("HH:mm:ss.SSS", Locale.US);
+	}
+}
@@ -0,0 +1,219 @@
+package de.mrunde.bachelorthesis.navigation;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import android.util.Log;
+
+import com.mapquest.android.maps.RouteResponse;
+
+import de.mrunde.bachelorthesis.basics.Route;
+import de.mrunde.bachelorthesis.data.GuidanceClient;
+
+/**
+ * The NavigationSession carries a navigation from the MainActivity into the
+ * NaviActivity: the start and destination, the route options, the route that
+ * has already been calculated and the guidance information that is
+ * downloaded in advance while the user looks at the route. So the navigation
+ * can be started without requesting the route again.
+ * 
+ * @author Marius Runde
+ */
+public class NavigationSession {
+
+	/**
+	 * The start as a MapQuest location String
+	 */
+	private String currentLocation;
+
+	/**
+	 * The destination as a MapQuest location String
+	 */
+	private String destination;
+
+	/**
+	 * Latitude of the destination
+	 */
+	private double destinationLat;
+
+	/**
+	 * Longitude of the destination
+	 */
+	private double destinationLng;
+
+	/**
+	 * Route options (already formatted as a String)
+	 */
+	private String routeOptions;
+
+	/**
+	 * The calculated route. <code>null</code> if it has not been calculated
+	 * yet.
+	 */
+	private RouteResponse routeResponse;
+
+	/**
+	 * Download of the guidance information. <code>null</code> if it has not
+	 * been started.
+	 */
+	private FutureTask<Route> guidance;
+
+	/**
+	 * Constructor of the NavigationSession class
+	 * 
+	 * @param currentLocation
+	 *            The start as a MapQuest location String
+	 * @param destination
+	 *            The destination as a MapQuest location String
+	 * @param destinationLat
+	 *            Latitude of the destination
+	 * @param destinationLng
+	 *            Longitude of the destination
+	 * @param routeOptions
+	 *            Route options (already formatted as a String)
+	 */
+	public NavigationSession(String currentLocation, String destination,
+			double destinationLat, double destinationLng, String routeOptions) {
+		this.currentLocation = currentLocation;
+		this.destination = destination;
+		this.destinationLat = destinationLat;
+		this.destinationLng = destinationLng;
+		this.routeOptions = routeOptions;
+	}
+
+	/**
+	 * @return The start as a MapQuest location String
+	 */
+	public String getCurrentLocation() {
+		return this.currentLocation;
+	}
+
+	/**
+	 * @return The destination as a MapQuest location String
+	 */
+	public String getDestination() {
+		return this.destination;
+	}
+
+	/**
+	 * @return Latitude of the destination
+	 */
+	public double getDestinationLat() {
+		return this.destinationLat;
+	}
+
+	/**
+	 * @return Longitude of the destination
+	 */
+	public double getDestinationLng() {
+		return this.destinationLng;
+	}
+
+	/**
+	 * @return Route options (already formatted as a String)
+	 */
+	public String getRouteOptions() {
+		return this.routeOptions;
+	}
+
+	/**
+	 * @return The calculated route. <code>null</code> if it has not been
+	 *         calculated yet.
+	 */
+	public RouteResponse getRouteResponse() {
+		return this.routeResponse;
+	}
+
+	/**
+	 * @param routeResponse
+	 *            The calculated route
+	 */
+	public void setRouteResponse(RouteResponse routeResponse) {
+		this.routeResponse = routeResponse;
+	}
+
+	/**
+	 * Start to download the guidance information in the background. Nothing
+	 * happens if it has already been started.
+	 * 
+	 * @param client
+	 *            The client to request the guidance information
+	 */
+	public synchronized void prefetchGuidance(final GuidanceClient client) {
+		if (this.guidance != null) {
+			return;
+		}
+		this.guidance = new FutureTask<Route>(new Callable<Route>() {
+
+			@Override
+			public Route call() throws Exception {
+				return client.getRoute(currentLocation, destination,
+						routeOptions);
+			}
+		});
+		new Thread(this.guidance, "GuidancePrefetch").start();
+	}
+
+	/**
+	 * Set the guidance information if it has already been downloaded (e.g. to
+	 * display the route)
+	 * 
+	 * @param route
+	 *            The route
+	 */
+	public synchronized void setGuidance(final Route route) {
+		cancel();
+		this.guidance = new FutureTask<Route>(new Callable<Route>() {
+
+			@Override
+			public Route call() {
+				return route;
+			}
+		});
+		this.guidance.run();
+	}
+
+	/**
+	 * Get the guidance information that has been downloaded in advance. Waits
+	 * until the download has been finished, so this method must not be called
+	 * on the UI thread.
+	 * 
+	 * @return The route. <code>null</code> if the download has not been
+	 *         started or has failed.
+	 */
+	public Route getGuidance() {
+		FutureTask<Route> guidance;
+		synchronized (this) {
+			guidance = this.guidance;
+		}
+		if (guidance == null) {
+			return null;
+		}
+		try {
+			return guidance.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			Log.e("NavigationSession",
+					"Could not prefetch the guidance. This is the error message: "
+							+ e.getCause().getMessage());
+			return null;
+		} catch (CancellationException e) {
+			// The session is not used anymore
+			return null;
+		}
+	}
+
+	/**
+	 * Cancel the download of the guidance information if the session is not
+	 * used anymore
+	 */
+	public synchronized void cancel() {
+		if (this.guidance != null) {
+			this.guidance.cancel(true);
+		}
+	}
+}
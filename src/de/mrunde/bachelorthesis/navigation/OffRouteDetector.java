@@ -0,0 +1,136 @@
+package de.mrunde.bachelorthesis.navigation;
+
+/**
+ * The OffRouteDetector decides whether the user has left the route by the
+ * cross-track distance of the locations to the route. The user has left the
+ * route when the distance exceeds the leave distance for at least the dwell
+ * time. The user is back on the route when the distance is below the smaller
+ * return distance again. So single jumps of the GPS do not cause a reroute,
+ * and a location near the leave distance does not switch the state back and
+ * forth.
+ * 
+ * @author Marius Runde
+ */
+public class OffRouteDetector {
+
+	/**
+	 * Listener that is informed when the user has left the route
+	 */
+	public interface OnOffRouteListener {
+
+		/**
+		 * Called once when the user has left the route. It is called again
+		 * after the user has returned to the route or the detector has been
+		 * reset.
+		 */
+		public void onOffRoute();
+	}
+
+	/**
+	 * Cross-track distance in meters above which the user is leaving the
+	 * route
+	 */
+	private double leaveDistance;
+
+	/**
+	 * Cross-track distance in meters below which the user is back on the
+	 * route
+	 */
+	private double returnDistance;
+
+	/**
+	 * Time in milliseconds the user has to stay beyond the leave distance
+	 */
+	private long dwellTime;
+
+	/**
+	 * The listener
+	 */
+	private OnOffRouteListener listener;
+
+	/**
+	 * Time of the first location beyond the leave distance. -1 if the last
+	 * location was not beyond it.
+	 */
+	private long leavingSince = -1;
+
+	/**
+	 * <code>TRUE</code>: The user has left the route
+	 */
+	private boolean offRoute;
+
+	/**
+	 * Constructor of the OffRouteDetector class
+	 * 
+	 * @param leaveDistance
+	 *            Cross-track distance in meters above which the user is
+	 *            leaving the route
+	 * @param returnDistance
+	 *            Cross-track distance in meters below which the user is back
+	 *            on the route (not larger than <code>leaveDistance</code>)
+	 * @param dwellTime
+	 *            Time in milliseconds the user has to stay beyond the leave
+	 *            distance
+	 * @param listener
+	 *            The listener that is informed when the user has left the
+	 *            route
+	 */
+	public OffRouteDetector(double leaveDistance, double returnDistance,
+			long dwellTime, OnOffRouteListener listener) {
+		if (returnDistance > leaveDistance) {
+			throw new IllegalArgumentException(
+					"The return distance must not be larger than the leave distance");
+		}
+		this.leaveDistance = leaveDistance;
+		this.returnDistance = returnDistance;
+		this.dwellTime = dwellTime;
+		this.listener = listener;
+	}
+
+	/**
+	 * Update the detector with the next location
+	 * 
+	 * @param distanceToRoute
+	 *            Cross-track distance between the location and the route in
+	 *            meters
+	 * @param time
+	 *            Time of the location in milliseconds
+	 */
+	public void update(double distanceToRoute, long time) {
+		if (this.offRoute) {
+			// Wait until the user is back on the route
+			if (distanceToRoute < this.returnDistance) {
+				reset();
+			}
+			return;
+		}
+
+		if (distanceToRoute <= this.leaveDistance) {
+			this.leavingSince = -1;
+		} else if (this.leavingSince < 0) {
+			this.leavingSince = time;
+		}
+		if (this.leavingSince >= 0
+				&& time - this.leavingSince >= this.dwellTime) {
+			this.offRoute = true;
+			this.listener.onOffRoute();
+		}
+	}
+
+	/**
+	 * @return <code>TRUE</code>: The user has left the route<br/>
+	 *         <code>FALSE</code>: The user is on the route
+	 */
+	public boolean isOffRoute() {
+		return this.offRoute;
+	}
+
+	/**
+	 * Reset the detector, e.g. after the route has been replaced or could not
+	 * be replaced
+	 */
+	public void reset() {
+		this.offRoute = false;
+		this.leavingSince = -1;
+	}
+}
@@ -0,0 +1,221 @@
+package de.mrunde.bachelorthesis.navigation;
+
+import de.mrunde.bachelorthesis.basics.GeoDistance;
+import de.mrunde.bachelorthesis.basics.Route;
+
+/**
+ * The RouteMatcher snaps the locations of the user onto the shape of the
+ * route. It keeps a cursor on the shape point in front of the last matched
+ * location, which only moves forward. A location is only compared with the
+ * part of the route within <code>SEARCH_DISTANCE</code> ahead of the cursor,
+ * so the time needed per location does not depend on the length of the
+ * route.<br/>
+ * <br/>
+ * The bearing of the location (if known) is compared with the direction of
+ * the route, so a location is not matched onto the opposite lane of a road
+ * that runs back close to itself.
+ * 
+ * @author Marius Runde
+ */
+public class RouteMatcher {
+
+	/**
+	 * Part of the route ahead of the cursor that is searched for a location in
+	 * meters
+	 */
+	private static final double SEARCH_DISTANCE = 500;
+
+	/**
+	 * Maximum distance between a location and the route to be matched in
+	 * meters
+	 */
+	private static final double MAX_MATCH_DISTANCE = 50;
+
+	/**
+	 * Maximum difference between the bearing of a location and the direction
+	 * of the route in degrees
+	 */
+	private static final double MAX_BEARING_DIFFERENCE = 90;
+
+	/**
+	 * Penalty in meters for parts of the route whose direction does not fit
+	 * the bearing of the location
+	 */
+	private static final double BEARING_PENALTY = 2 * MAX_MATCH_DISTANCE;
+
+	/**
+	 * The route
+	 */
+	private Route route;
+
+	/**
+	 * Index of the shape point in front of the last matched location
+	 */
+	private int cursor;
+
+	/**
+	 * Along-route offset of the last matched location in meters
+	 */
+	private double offset;
+
+	/**
+	 * Distance between the last location and the route in meters
+	 */
+	private double distanceToRoute;
+
+	/**
+	 * <code>TRUE</code>: The last location has been matched onto the route
+	 */
+	private boolean matched;
+
+	/**
+	 * Constructor of the RouteMatcher class
+	 * 
+	 * @param route
+	 *            The route
+	 */
+	public RouteMatcher(Route route) {
+		this.route = route;
+	}
+
+	/**
+	 * Match a location onto the route. If it is too far away from the route,
+	 * the cursor and the along-route offset are kept.
+	 * 
+	 * @param lat
+	 *            Latitude of the location
+	 * @param lng
+	 *            Longitude of the location
+	 * @param bearing
+	 *            Bearing of the location in degrees. <code>NaN</code> if it is
+	 *            not known (e.g. when the user is not moving).
+	 * @return <code>TRUE</code>: The location has been matched onto the
+	 *         route<br/>
+	 *         <code>FALSE</code>: The location is too far away from the route
+	 */
+	public boolean match(double lat, double lng, double bearing) {
+		// Coordinates are converted into meters relative to the location
+		double cos = GeoDistance.cosine(lat);
+		double metersPerDegreeLng = GeoDistance.METERS_PER_DEGREE * cos;
+		double metersPerDegreeLat = GeoDistance.METERS_PER_DEGREE;
+
+		int last = this.route.getNumberOfShapePoints() - 1;
+		double searchEnd = this.offset + SEARCH_DISTANCE;
+		int bestIndex = this.cursor;
+		double bestFraction = 0;
+		double bestScore = Double.MAX_VALUE;
+		double bestDistance = Double.MAX_VALUE;
+
+		double ax = (this.route.getLongitude(this.cursor) - lng)
+				* metersPerDegreeLng;
+		double ay = (this.route.getLatitude(this.cursor) - lat)
+				* metersPerDegreeLat;
+		for (int i = this.cursor; i < last; i++) {
+			if (i > this.cursor && this.route.getOffset(i) > searchEnd) {
+				break;
+			}
+			double bx = (this.route.getLongitude(i + 1) - lng)
+					* metersPerDegreeLng;
+			double by = (this.route.getLatitude(i + 1) - lat)
+					* metersPerDegreeLat;
+
+			// Project the location onto the line between both shape points
+			double dx = bx - ax;
+			double dy = by - ay;
+			double length2 = dx * dx + dy * dy;
+			double fraction = 0;
+			if (length2 > 0) {
+				fraction = Math.max(0,
+						Math.min(1, -(ax * dx + ay * dy) / length2));
+			}
+			double px = ax + fraction * dx;
+			double py = ay + fraction * dy;
+			double distance = Math.sqrt(px * px + py * py);
+
+			// Prefer the parts of the route in the direction of travel
+			double score = distance;
+			if (length2 > 0 && !Double.isNaN(bearing)) {
+				double difference = getBearingDifference(bearing, dx, dy);
+				if (difference > MAX_BEARING_DIFFERENCE) {
+					score += BEARING_PENALTY;
+				}
+			}
+			if (score < bestScore) {
+				bestScore = score;
+				bestDistance = distance;
+				bestIndex = i;
+				bestFraction = fraction;
+			}
+
+			ax = bx;
+			ay = by;
+		}
+
+		this.distanceToRoute = bestDistance;
+		this.matched = bestDistance <= MAX_MATCH_DISTANCE;
+		if (this.matched) {
+			// The location never moves backwards along the route
+			this.cursor = bestIndex;
+			this.offset = Math.max(this.offset,
+					this.route.getOffset(bestIndex, bestFraction));
+		}
+		return this.matched;
+	}
+
+	/**
+	 * Calculate the difference between a bearing and the direction of a line
+	 * 
+	 * @param bearing
+	 *            The bearing in degrees
+	 * @param dx
+	 *            Length of the line to the east
+	 * @param dy
+	 *            Length of the line to the north
+	 * @return The difference in degrees (0 to 180)
+	 */
+	private static double getBearingDifference(double bearing, double dx,
+			double dy) {
+		double direction = Math.toDegrees(Math.atan2(dx, dy));
+		double difference = Math.abs(bearing - direction) % 360;
+		return (difference > 180) ? 360 - difference : difference;
+	}
+
+	/**
+	 * @return <code>TRUE</code>: The last location has been matched onto the
+	 *         route<br/>
+	 *         <code>FALSE</code>: The last location was too far away from the
+	 *         route
+	 */
+	public boolean isMatched() {
+		return this.matched;
+	}
+
+	/**
+	 * @return Along-route offset of the last matched location in meters
+	 */
+	public double getOffset() {
+		return this.offset;
+	}
+
+	/**
+	 * @return Index of the shape point in front of the last matched location
+	 */
+	public int getCursor() {
+		return this.cursor;
+	}
+
+	/**
+	 * @return Distance between the last location and the route in meters
+	 */
+	public double getDistanceToRoute() {
+		return this.distanceToRoute;
+	}
+
+	/**
+	 * @return The remaining distance along the route from the last matched
+	 *         location to the destination in meters
+	 */
+	public double getRemainingDistance() {
+		return this.route.getRemainingDistance(0) - this.offset;
+	}
+}
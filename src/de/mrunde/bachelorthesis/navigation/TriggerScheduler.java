@@ -0,0 +1,173 @@
+package de.mrunde.bachelorthesis.navigation;
+
+/**
+ * The TriggerScheduler decides when the current instruction is announced
+ * again, when a now instruction is prompted and when the navigation advances
+ * to the next instruction. The along-route offsets of these triggers are
+ * calculated once from the decision point of each instruction when it
+ * becomes current, so each location only has to be compared with the next
+ * pending trigger of the current instruction.<br/>
+ * <br/>
+ * A trigger is only used if the instruction is current for long enough
+ * before it, i.e. the distance between the advance of the previous decision
+ * point and the decision point is large enough.
+ * 
+ * @author Marius Runde
+ */
+public class TriggerScheduler {
+
+	/**
+	 * No trigger has been reached
+	 */
+	public static final int NONE = -1;
+
+	/**
+	 * The current instruction shall be announced again
+	 */
+	public static final int PRE_ANNOUNCE = 0;
+
+	/**
+	 * The now instruction shall be prompted
+	 */
+	public static final int NOW = 1;
+
+	/**
+	 * The navigation shall advance to the next instruction
+	 */
+	public static final int ADVANCE = 2;
+
+	/**
+	 * Number of triggers of each decision point
+	 */
+	private static final int NUMBER_OF_TRIGGERS = 3;
+
+	/**
+	 * Distance to the decision point in meters at which the current
+	 * instruction is announced again
+	 */
+	private static final double PRE_ANNOUNCE_DISTANCE = 150;
+
+	/**
+	 * Minimum distance between the advance of the previous decision point and
+	 * the decision point in meters to announce the instruction again
+	 */
+	private static final double MIN_DISTANCE_FOR_PRE_ANNOUNCE = 2 * PRE_ANNOUNCE_DISTANCE;
+
+	/**
+	 * Distance to the decision point in meters at which the now instruction
+	 * is prompted
+	 */
+	private static final double DISTANCE_FOR_NOW_INSTRUCTION = 48;
+
+	/**
+	 * Minimum distance between the advance of the previous decision point and
+	 * the decision point in meters to use a now instruction
+	 */
+	private static final double MIN_DISTANCE_FOR_NOW_INSTRUCTION = 100;
+
+	/**
+	 * Distance to the decision point in meters at which the navigation
+	 * advances to the next instruction
+	 */
+	private static final double MAX_DISTANCE_TO_DECISION_POINT = 32;
+
+	/**
+	 * Along-route offsets of the triggers of the current instruction in
+	 * meters. <code>NaN</code> if a trigger is not used.
+	 */
+	private double[] offsets = new double[NUMBER_OF_TRIGGERS];
+
+	/**
+	 * Along-route offset of the advance of the previous instruction in meters
+	 */
+	private double previousAdvance = 0;
+
+	/**
+	 * Index of the current instruction. -1 if it has not been set yet.
+	 */
+	private int instruction = -1;
+
+	/**
+	 * <code>TRUE</code>: The current instruction exists and has triggers
+	 */
+	private boolean active = false;
+
+	/**
+	 * The next trigger of the current instruction that has not been reached
+	 * yet
+	 */
+	private int nextTrigger;
+
+	/**
+	 * @return Index of the current instruction. -1 if it has not been set
+	 *         yet.
+	 */
+	public int getInstruction() {
+		return this.instruction;
+	}
+
+	/**
+	 * Set the current instruction and calculate its triggers. All of them are
+	 * pending again. The instructions have to be set in the order of the
+	 * route.
+	 * 
+	 * @param instruction
+	 *            Index of the instruction
+	 * @param decisionPoint
+	 *            Along-route offset of the decision point of the instruction
+	 *            in meters. Negative if the instruction does not exist.
+	 */
+	public void setInstruction(int instruction, double decisionPoint) {
+		this.instruction = instruction;
+		this.nextTrigger = PRE_ANNOUNCE;
+		this.active = decisionPoint >= 0;
+		if (!this.active) {
+			return;
+		}
+
+		double available = decisionPoint - this.previousAdvance;
+		this.offsets[PRE_ANNOUNCE] = Double.NaN;
+		if (available >= MIN_DISTANCE_FOR_PRE_ANNOUNCE) {
+			this.offsets[PRE_ANNOUNCE] = decisionPoint - PRE_ANNOUNCE_DISTANCE;
+		}
+		this.offsets[NOW] = Double.NaN;
+		if (available >= MIN_DISTANCE_FOR_NOW_INSTRUCTION) {
+			this.offsets[NOW] = decisionPoint - DISTANCE_FOR_NOW_INSTRUCTION;
+		}
+		this.offsets[ADVANCE] = decisionPoint - MAX_DISTANCE_TO_DECISION_POINT;
+		this.previousAdvance = Math.max(this.previousAdvance,
+				this.offsets[ADVANCE]);
+	}
+
+	/**
+	 * Check if the next pending trigger of the current instruction has been
+	 * reached. If the location has passed several triggers at once, only the
+	 * last of them is returned, so an outdated prompt is not used anymore.
+	 * 
+	 * @param offset
+	 *            Along-route offset of the location in meters
+	 * @return The reached trigger (<code>PRE_ANNOUNCE</code>,
+	 *         <code>NOW</code> or <code>ADVANCE</code>). <code>NONE</code> if
+	 *         no trigger has been reached.
+	 */
+	public int update(double offset) {
+		if (!this.active) {
+			return NONE;
+		}
+		int reached = NONE;
+		for (int t = this.nextTrigger; t < NUMBER_OF_TRIGGERS; t++) {
+			double triggerOffset = this.offsets[t];
+			if (Double.isNaN(triggerOffset)) {
+				continue;
+			}
+			if (offset < triggerOffset) {
+				break;
+			}
+			reached = t;
+		}
+		if (reached != NONE) {
+			this.nextTrigger = reached + 1;
+		}
+		return reached;
+	}
+}
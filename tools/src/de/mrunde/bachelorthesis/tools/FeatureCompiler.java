@@ -0,0 +1,564 @@
+package de.mrunde.bachelorthesis.tools;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.mrunde.bachelorthesis.basics.LandmarkCategory;
+import de.mrunde.bachelorthesis.basics.StreetFurnitureCategory;
+import de.mrunde.bachelorthesis.data.FeatureStore;
+import de.mrunde.bachelorthesis.data.FeatureStoreWriter;
+import de.mrunde.bachelorthesis.data.JsonTokenizer;
+
+/**
+ * The FeatureCompiler validates the landmarks, street furniture and
+ * intersections in the datasets directory and compiles them into the feature
+ * store loaded by the application (assets/features.bin). It is run by the
+ * build (see custom_rules.xml), so an invalid dataset fails the build instead
+ * of the navigation.<br/>
+ * <br/>
+ * Usage: <code>FeatureCompiler &lt;datasets directory&gt; &lt;feature
+ * store&gt;</code>
+ * 
+ * @author Marius Runde
+ */
+public class FeatureCompiler {
+
+	/**
+	 * File name of the landmarks
+	 */
+	public static final String LANDMARKS = "landmarks.json";
+
+	/**
+	 * File name of the street furniture
+	 */
+	public static final String STREET_FURNITURE = "streetfurniture.json";
+
+	/**
+	 * File name of the intersections
+	 */
+	public static final String INTERSECTIONS = "intersections.json";
+
+	/**
+	 * Radius of visibility of a street furniture without an individual radius
+	 * in meters
+	 */
+	public static final int DEFAULT_STREET_FURNITURE_RADIUS = 16;
+
+	/**
+	 * Radius of visibility of an intersection in meters
+	 */
+	public static final int INTERSECTION_RADIUS = 16;
+
+	/**
+	 * Largest allowed radius of visibility in meters
+	 */
+	public static final int MAX_RADIUS = 5000;
+
+	/**
+	 * The writer of the feature store
+	 */
+	private FeatureStoreWriter writer = new FeatureStoreWriter();
+
+	/**
+	 * All errors found in the datasets
+	 */
+	private List<String> errors = new ArrayList<String>();
+
+	/**
+	 * Location of the first feature at each coordinate of each layer to find
+	 * duplicates
+	 */
+	private List<Map<Long, String>> coordinates;
+
+	/**
+	 * The file currently being compiled
+	 */
+	private String file;
+
+	/**
+	 * The tokenizer of the file currently being compiled
+	 */
+	private JsonTokenizer json;
+
+	/**
+	 * Constructor of the FeatureCompiler class
+	 */
+	public FeatureCompiler() {
+		this.coordinates = new ArrayList<Map<Long, String>>();
+		for (int layer = 0; layer < FeatureStore.NUMBER_OF_LAYERS; layer++) {
+			this.coordinates.add(new HashMap<Long, String>());
+		}
+	}
+
+	/**
+	 * Compile the datasets
+	 * 
+	 * @param args
+	 *            The datasets directory and the file of the feature store
+	 */
+	public static void main(String[] args) {
+		if (args.length != 2) {
+			System.err.println("Usage: FeatureCompiler <datasets directory> "
+					+ "<feature store>");
+			System.exit(2);
+		}
+
+		FeatureCompiler compiler = new FeatureCompiler();
+		File directory = new File(args[0]);
+		compiler.compileLandmarks(new File(directory, LANDMARKS));
+		compiler.compileStreetFurniture(new File(directory, STREET_FURNITURE));
+		compiler.compileIntersections(new File(directory, INTERSECTIONS));
+
+		List<String> errors = compiler.getErrors();
+		if (!errors.isEmpty()) {
+			for (String error : errors) {
+				System.err.println(error);
+			}
+			System.err.println(errors.size() + " error(s) in the datasets");
+			System.exit(1);
+		}
+
+		try {
+			compiler.writeTo(new File(args[1]));
+		} catch (IOException e) {
+			System.err.println("Could not write the feature store. "
+					+ "This is the error message: " + e.getMessage());
+			System.exit(1);
+		}
+		System.out.println(compiler.getSummary() + " compiled into " + args[1]);
+	}
+
+	/**
+	 * @return All errors found in the datasets so far
+	 */
+	public List<String> getErrors() {
+		return this.errors;
+	}
+
+	/**
+	 * @return The number of compiled features of each layer
+	 */
+	public String getSummary() {
+		return this.writer.size(FeatureStore.LOCAL_LANDMARKS)
+				+ " local landmarks, "
+				+ this.writer.size(FeatureStore.GLOBAL_LANDMARKS)
+				+ " global landmarks, "
+				+ this.writer.size(FeatureStore.STREET_FURNITURE)
+				+ " street furniture and "
+				+ this.writer.size(FeatureStore.INTERSECTIONS)
+				+ " intersections";
+	}
+
+	/**
+	 * Write the feature store. A temporary file is written first so that no
+	 * incomplete feature store is left behind.
+	 * 
+	 * @param store
+	 *            The file of the feature store
+	 * @throws IOException
+	 *             If the feature store could not be written
+	 */
+	public void writeTo(File store) throws IOException {
+		File temp = new File(store.getPath() + ".tmp");
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(temp));
+		try {
+			this.writer.writeTo(out);
+		} finally {
+			out.close();
+		}
+		if (store.exists() && !store.delete() || !temp.renameTo(store)) {
+			temp.delete();
+			throw new IOException("Could not rename " + temp);
+		}
+	}
+
+	// --- Landmarks ---
+
+	/**
+	 * Compile the local and global landmarks
+	 * 
+	 * @param landmarks
+	 *            The file of the landmarks
+	 */
+	public void compileLandmarks(File landmarks) {
+		if (!open(landmarks)) {
+			return;
+		}
+		try {
+			boolean hasLocal = false;
+			boolean hasGlobal = false;
+			this.json.beginObject();
+			while (this.json.hasNextMember()) {
+				String name = this.json.nextName();
+				if ("local".equals(name)) {
+					compileLandmarks(FeatureStore.LOCAL_LANDMARKS);
+					hasLocal = true;
+				} else if ("global".equals(name)) {
+					compileLandmarks(FeatureStore.GLOBAL_LANDMARKS);
+					hasGlobal = true;
+				} else {
+					error("Unknown member \"" + name + "\"");
+					this.json.skipValue();
+				}
+			}
+			if (!hasLocal || !hasGlobal) {
+				error("The landmarks need a \"local\" and a \"global\" array");
+			}
+			this.json.endDocument();
+		} catch (IOException e) {
+			error(e);
+		} finally {
+			close();
+		}
+	}
+
+	/**
+	 * Compile the landmarks of a layer
+	 * 
+	 * @param layer
+	 *            The layer of the landmarks
+	 * @throws IOException
+	 */
+	private void compileLandmarks(int layer) throws IOException {
+		String[] categories = LandmarkCategory.getCategories();
+		this.json.beginArray();
+		while (this.json.hasNextElement()) {
+			String title = null;
+			double[] center = null;
+			int radius = -1;
+			String category = null;
+
+			this.json.beginObject();
+			int line = this.json.getLine();
+			while (this.json.hasNextMember()) {
+				String name = this.json.nextName();
+				if ("title".equals(name)) {
+					title = this.json.nextString();
+				} else if ("center".equals(name)) {
+					center = nextCenter();
+				} else if ("radius".equals(name)) {
+					radius = nextRadius();
+				} else if ("category".equals(name)) {
+					category = this.json.nextString();
+				} else {
+					error("Unknown member \"" + name + "\"");
+					this.json.skipValue();
+				}
+			}
+
+			if (title == null || title.trim().length() == 0) {
+				error(line, "The landmark has no title");
+			}
+			if (radius == -1) {
+				error(line, "The landmark has no radius");
+			}
+			int categoryIndex = indexOf(categories, category, line);
+			if (center != null && isValid(layer, center, line)
+					&& title != null && radius > 0 && categoryIndex >= 0) {
+				this.writer.addFeature(layer, center[0], center[1], radius,
+						categoryIndex, title);
+			}
+		}
+	}
+
+	// --- Street furniture ---
+
+	/**
+	 * Compile the street furniture
+	 * 
+	 * @param streetFurniture
+	 *            The file of the street furniture
+	 */
+	public void compileStreetFurniture(File streetFurniture) {
+		if (!open(streetFurniture)) {
+			return;
+		}
+		try {
+			String[] categories = StreetFurnitureCategory.getCategories();
+			this.json.beginArray();
+			while (this.json.hasNextElement()) {
+				double[] center = null;
+				// Has the street furniture an individual radius of visual
+				// salience?
+				int radius = DEFAULT_STREET_FURNITURE_RADIUS;
+				String category = null;
+
+				this.json.beginObject();
+				int line = this.json.getLine();
+				while (this.json.hasNextMember()) {
+					String name = this.json.nextName();
+					if ("center".equals(name)) {
+						center = nextCenter();
+					} else if ("radius".equals(name)) {
+						radius = nextRadius();
+					} else if ("category".equals(name)) {
+						category = this.json.nextString();
+					} else {
+						error("Unknown member \"" + name + "\"");
+						this.json.skipValue();
+					}
+				}
+
+				int categoryIndex = indexOf(categories, category, line);
+				if (center != null
+						&& isValid(FeatureStore.STREET_FURNITURE, center, line)
+						&& radius > 0 && categoryIndex >= 0) {
+					this.writer.addFeature(FeatureStore.STREET_FURNITURE,
+							center[0], center[1], radius, categoryIndex, null);
+				}
+			}
+			this.json.endDocument();
+		} catch (IOException e) {
+			error(e);
+		} finally {
+			close();
+		}
+	}
+
+	// --- Intersections ---
+
+	/**
+	 * Compile the intersections. Their descriptions are stored as titles.
+	 * 
+	 * @param intersections
+	 *            The file of the intersections
+	 */
+	public void compileIntersections(File intersections) {
+		if (!open(intersections)) {
+			return;
+		}
+		try {
+			this.json.beginArray();
+			while (this.json.hasNextElement()) {
+				double[] center = new double[] { Double.NaN, Double.NaN };
+				String description = null;
+
+				this.json.beginObject();
+				int line = this.json.getLine();
+				while (this.json.hasNextMember()) {
+					String name = this.json.nextName();
+					if ("lat".equals(name)) {
+						center[0] = this.json.nextDouble();
+					} else if ("lng".equals(name)) {
+						center[1] = this.json.nextDouble();
+					} else if ("description".equals(name)) {
+						description = this.json.nextString();
+					} else {
+						error("Unknown member \"" + name + "\"");
+						this.json.skipValue();
+					}
+				}
+
+				if (isValid(FeatureStore.INTERSECTIONS, center, line)) {
+					this.writer.addFeature(FeatureStore.INTERSECTIONS,
+							center[0], center[1], INTERSECTION_RADIUS, -1,
+							description);
+				}
+			}
+			this.json.endDocument();
+		} catch (IOException e) {
+			error(e);
+		} finally {
+			close();
+		}
+	}
+
+	// --- Values ---
+
+	/**
+	 * Read a <code>center</code> object
+	 * 
+	 * @return Latitude and longitude of the center. A missing value is
+	 *         <code>NaN</code>.
+	 * @throws IOException
+	 */
+	private double[] nextCenter() throws IOException {
+		double[] center = new double[] { Double.NaN, Double.NaN };
+		this.json.beginObject();
+		while (this.json.hasNextMember()) {
+			String name = this.json.nextName();
+			if ("lat".equals(name)) {
+				center[0] = this.json.nextDouble();
+			} else if ("lng".equals(name)) {
+				center[1] = this.json.nextDouble();
+			} else {
+				error("Unknown member \"" + name + "\"");
+				this.json.skipValue();
+			}
+		}
+		return center;
+	}
+
+	/**
+	 * Read a radius of visibility
+	 * 
+	 * @return The radius in meters. 0 if it is not valid.
+	 * @throws IOException
+	 */
+	private int nextRadius() throws IOException {
+		double radius = this.json.nextDouble();
+		if (radius != Math.floor(radius) || radius < 1 || radius > MAX_RADIUS) {
+			error("The radius " + radius
+					+ " is no whole number of meters between 1 and "
+					+ MAX_RADIUS);
+			return 0;
+		}
+		return (int) radius;
+	}
+
+	/**
+	 * Check the coordinates of a feature and whether another feature of the
+	 * same layer is located at the same coordinates
+	 * 
+	 * @param layer
+	 *            The layer of the feature
+	 * @param center
+	 *            Latitude and longitude of the feature
+	 * @param line
+	 *            Line of the feature
+	 * @return <code>TRUE</code>: The coordinates are valid<br/>
+	 *         <code>FALSE</code>: An error has been reported
+	 */
+	private boolean isValid(int layer, double[] center, int line) {
+		double lat = center[0];
+		double lng = center[1];
+		if (Double.isNaN(lat) || Double.isNaN(lng)) {
+			error(line, "The feature needs a \"lat\" and a \"lng\" value");
+			return false;
+		}
+		if (lat < -90 || lat > 90 || lng < -180 || lng > 180) {
+			error(line, "The coordinates " + lat + ", " + lng
+					+ " are out of range");
+			return false;
+		}
+
+		long key = (Math.round(lat * 1E6) << 32)
+				| (Math.round(lng * 1E6) & 0xffffffffL);
+		String location = this.file + ":" + line;
+		String duplicate = this.coordinates.get(layer).put(key, location);
+		if (duplicate != null) {
+			error(line, "The feature is located at the same coordinates as "
+					+ "the feature at " + duplicate);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Get the index of a category and report it if it is not valid
+	 * 
+	 * @param categories
+	 *            All valid categories
+	 * @param category
+	 *            The category. <code>null</code> if it is missing.
+	 * @param line
+	 *            Line of the feature
+	 * @return The index of the category. -1 if it is not valid.
+	 */
+	private int indexOf(String[] categories, String category, int line) {
+		if (category == null) {
+			error(line, "The feature has no category");
+			return -1;
+		}
+		for (int i = 0; i < categories.length; i++) {
+			if (categories[i].equals(category)) {
+				return i;
+			}
+		}
+		error(line, "Unknown category \"" + category + "\"");
+		return -1;
+	}
+
+	// --- Files and errors ---
+
+	/**
+	 * Open a dataset. It has to be UTF-8 encoded.
+	 * 
+	 * @param dataset
+	 *            The file of the dataset
+	 * @return <code>TRUE</code>: The dataset has been opened<br/>
+	 *         <code>FALSE</code>: An error has been reported
+	 */
+	private boolean open(File dataset) {
+		this.file = dataset.getName();
+		CharsetDecoder decoder = Charset.forName("UTF-8").newDecoder()
+				.onMalformedInput(CodingErrorAction.REPORT)
+				.onUnmappableCharacter(CodingErrorAction.REPORT);
+		try {
+			this.json = new JsonTokenizer(new BufferedReader(
+					new InputStreamReader(new FileInputStream(dataset),
+							decoder)));
+			return true;
+		} catch (IOException e) {
+			error(e);
+			return false;
+		}
+	}
+
+	/**
+	 * Close the current dataset
+	 */
+	private void close() {
+		if (this.json != null) {
+			try {
+				this.json.close();
+			} catch (IOException e) {
+				// The dataset has been read already
+			}
+			this.json = null;
+		}
+	}
+
+	/**
+	 * Report an error at the current line
+	 * 
+	 * @param message
+	 *            Description of the error
+	 */
+	private void error(String message) {
+		error(this.json.getLine(), message);
+	}
+
+	/**
+	 * Report an error
+	 * 
+	 * @param line
+	 *            Line of the error
+	 * @param message
+	 *            Description of the error
+	 */
+	private void error(int line, String message) {
+		this.errors.add(this.file + ":" + line + ": " + message);
+	}
+
+	/**
+	 * Report an error that stopped the compilation of the current dataset
+	 * 
+	 * @param e
+	 *            The exception
+	 */
+	private void error(IOException e) {
+		if (e instanceof CharacterCodingException) {
+			// The line is not known because the file is read ahead
+			this.errors.add(this.file + ": The file is not UTF-8 encoded");
+		} else if (this.json == null) {
+			this.errors.add(this.file + ": " + e.getMessage());
+		} else {
+			error(e.getMessage());
+		}
+	}
+}
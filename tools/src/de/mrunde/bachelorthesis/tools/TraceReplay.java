@@ -0,0 +1,186 @@
+package de.mrunde.bachelorthesis.tools;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.Locale;
+
+import de.mrunde.bachelorthesis.basics.GeoDistance;
+import de.mrunde.bachelorthesis.navigation.KalmanFilter;
+
+/**
+ * The TraceReplay checks the tuning of the <code>KalmanFilter</code> with
+ * location traces whose true positions are known (tools/traces). Each trace is
+ * replayed through the filter and the root mean square of the errors of the
+ * raw and the filtered locations is compared. The check fails if the filter
+ * does not reduce the error of every trace by at least
+ * <code>MIN_IMPROVEMENT</code>.<br/>
+ * <br/>
+ * A trace is a CSV file with the columns <code>time</code> (milliseconds),
+ * <code>lat</code>, <code>lng</code>, <code>accuracy</code> (meters),
+ * <code>speed</code> (meters per second), <code>bearing</code> (degrees),
+ * <code>true_lat</code> and <code>true_lng</code>. Unknown accuracies, speeds
+ * and bearings are left empty. Lines starting with '#' are comments.<br/>
+ * <br/>
+ * Usage: <code>TraceReplay &lt;traces directory&gt;</code>
+ * 
+ * @author Marius Runde
+ */
+public class TraceReplay {
+
+	/**
+	 * Minimal share of the error of the raw locations that has to be removed
+	 * by the filter
+	 */
+	public static final double MIN_IMPROVEMENT = 0.45;
+
+	/**
+	 * Number of columns of a trace
+	 */
+	private static final int COLUMNS = 8;
+
+	/**
+	 * Replay all traces of a directory
+	 * 
+	 * @param args
+	 *            The traces directory
+	 */
+	public static void main(String[] args) {
+		if (args.length != 1) {
+			System.err.println("Usage: TraceReplay <traces directory>");
+			System.exit(2);
+		}
+
+		File[] traces = new File(args[0]).listFiles();
+		if (traces == null) {
+			System.err.println(args[0] + " is no directory");
+			System.exit(2);
+		}
+		Arrays.sort(traces);
+
+		int replayed = 0;
+		int failed = 0;
+		for (File trace : traces) {
+			if (!trace.getName().endsWith(".csv")) {
+				continue;
+			}
+			replayed++;
+			try {
+				double[] errors = replay(trace);
+				boolean passed = errors[1] <= (1 - MIN_IMPROVEMENT)
+						* errors[0];
+				System.out.println(String.format(Locale.US,
+						"%s: %.0f locations, error %.2f m raw, %.2f m "
+								+ "filtered (RMS)%s", trace.getName(),
+						errors[2], errors[0], errors[1], passed ? ""
+								: " - FAILED"));
+				if (!passed) {
+					failed++;
+				}
+			} catch (IOException e) {
+				System.err.println(trace.getName() + ": " + e.getMessage());
+				failed++;
+			}
+		}
+
+		if (replayed == 0) {
+			System.err.println("No traces found in " + args[0]);
+			System.exit(1);
+		}
+		if (failed > 0) {
+			System.err.println(failed + " of " + replayed
+					+ " trace(s) failed");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Replay a trace through a new filter
+	 * 
+	 * @param trace
+	 *            The file of the trace
+	 * @return The RMS error of the raw and of the filtered locations in
+	 *         meters and the number of locations
+	 * @throws IOException
+	 *             If the trace could not be read or is invalid
+	 */
+	public static double[] replay(File trace) throws IOException {
+		KalmanFilter filter = new KalmanFilter();
+		double rawSum = 0;
+		double filteredSum = 0;
+		int count = 0;
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(trace), "UTF-8"));
+		try {
+			String line;
+			int number = 0;
+			while ((line = reader.readLine()) != null) {
+				number++;
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#")
+						|| line.startsWith("time,")) {
+					continue;
+				}
+				String[] values = line.split(",", -1);
+				if (values.length != COLUMNS) {
+					throw new IOException("Line " + number + " has "
+							+ values.length + " instead of " + COLUMNS
+							+ " columns");
+				}
+
+				try {
+					long time = Long.parseLong(values[0]);
+					double lat = Double.parseDouble(values[1]);
+					double lng = Double.parseDouble(values[2]);
+					double trueLat = Double.parseDouble(values[6]);
+					double trueLng = Double.parseDouble(values[7]);
+
+					filter.update(time, lat, lng, parse(values[3]));
+					double speed = parse(values[4]);
+					double bearing = parse(values[5]);
+					if (!Double.isNaN(speed) && !Double.isNaN(bearing)) {
+						filter.updateVelocity(speed, bearing);
+					}
+
+					double raw = GeoDistance.haversine(lat, lng, trueLat,
+							trueLng);
+					double filtered = GeoDistance.haversine(
+							filter.getLatitude(), filter.getLongitude(),
+							trueLat, trueLng);
+					rawSum += raw * raw;
+					filteredSum += filtered * filtered;
+					count++;
+				} catch (NumberFormatException e) {
+					throw new IOException("Line " + number
+							+ " contains no valid number");
+				}
+			}
+		} finally {
+			reader.close();
+		}
+
+		if (count == 0) {
+			throw new IOException("The trace contains no locations");
+		}
+		return new double[] { Math.sqrt(rawSum / count),
+				Math.sqrt(filteredSum / count), count };
+	}
+
+	/**
+	 * Parse an optional value of a trace
+	 * 
+	 * @param value
+	 *            The value
+	 * @return The value. <code>NaN</code> if it is empty.
+	 */
+	private static double parse(String value) {
+		if (value.length() == 0) {
+			return Double.NaN;
+		}
+		return Double.parseDouble(value);
+	}
+}